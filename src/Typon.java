@@ -5,7 +5,6 @@
 //=======================================================================
 
 import controller.Controller;
-import controller.ErrorLogger;
 
 public class Typon{
    /**
@@ -17,24 +16,21 @@ public class Typon{
         java.awt.EventQueue.invokeLater(new Runnable() {
             @Override
             public void run() {
-                try{ 
-                    Controller controller = Controller.getController();
-                    if(args.length>0){
-                        //pokud je v cestě k souboru mezera, tak je cesta rozdělena do více argumentů
-                        String path = "";
-                        for (String arg : args) {
-                            path += arg;
-                            if (arg.endsWith(".typon")) {
-                                break;
-                            }
-                            path+=" ";
+                //logovací soubory se zavírají až při ukončení aplikace (i činnosti na pozadí musí mít kam logovat)
+                Controller controller = Controller.getController();
+                if(args.length>0){
+                    //pokud je v cestě k souboru mezera, tak je cesta rozdělena do více argumentů
+                    String path = "";
+                    for (String arg : args) {
+                        path += arg;
+                        if (arg.endsWith(".typon")) {
+                            break;
                         }
-                        controller.setVisible(path);
-                    }else{
-                        controller.setVisible(null);
+                        path+=" ";
                     }
-                }finally{
-                    ErrorLogger.close();
+                    controller.setVisible(path);
+                }else{
+                    controller.setVisible(null);
                 }
             }
         });
@@ -34,9 +34,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.text.Normalizer;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -60,8 +58,11 @@ import javax.swing.event.MouseInputAdapter;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.StyleConstants;
 import model.FunctionSetup;
+import model.FunctionSetupListener;
 import model.Model;
 import model.MyUndoManager;
+import model.RemoteQueueListener;
+import model.SaveListener;
 import net.coobird.thumbnailator.Thumbnails;
 import rtf.AdvancedRTFEditorKit;
 import view.EditorViewes.IconMyView;
@@ -115,6 +116,16 @@ public class Controller
      */
     private boolean allowPaste = true;
     
+    /**
+     * Stav fronty kopií, které čekají na odeslání do sdíleného úložiště (null, pokud žádné nečekají).
+     */
+    private String remoteQueueStatus = null;
+    
+    /**
+     * Registrace fontů, která běží na pozadí během spouštění editoru.
+     */
+    private static Future<?> fontRegistration;
+    
     /**
      * Globální logger chyb
      */
@@ -132,7 +143,13 @@ public class Controller
         setMainListeners();
         setPasteButton();
         view.enableCopyCutButtons(false);
-        setAssociation();
+        StartupProfiler.inBackground("asociace souborů", new Runnable() {
+            @Override
+            public void run() {
+                setAssociation();
+            }
+        });
+        model.setRemoteQueueListener(new RemoteQueueStatusListener());
     }
 
     /**
@@ -141,13 +158,33 @@ public class Controller
      */
     public static Controller getController() {
         if(controller == null){
+            StartupProfiler.begin();
             try {
                 ErrorLogger.setup();
             } catch (IOException ex) {
                 Logger.getLogger(Controller.class.getName()).log(Level.SEVERE, null, ex);
             }
+            StartupProfiler.phase("logování");
             checkAccessToLibraries();
-            controller = new Controller(MyView.getView(), Model.getModel());
+            StartupProfiler.phase("kontrola knihoven");
+            fontRegistration = StartupProfiler.inBackground("registrace fontů", new Runnable() {
+                @Override
+                public void run() {
+                    MyView.registerFonts();
+                }
+            });
+            StartupProfiler.inBackground("načtení knihoven", new Runnable() {
+                @Override
+                public void run() {
+                    loadLibraries();
+                }
+            });
+            MyView view = MyView.getView();
+            StartupProfiler.phase("hlavní okno");
+            Model model = Model.getModel();
+            StartupProfiler.phase("model");
+            controller = new Controller(view, model);
+            StartupProfiler.phase("controller");
         }
         return controller;
     }
@@ -158,20 +195,46 @@ public class Controller
     
     /**
      * Zkontroluje, zda jsou přístupné všechny externí knihovny.
+     * (Stačí načíst jejich třídy, inicializují se až na pozadí v loadLibraries().)
      * Pokud ne, tak vyhodí varovnou hlášku a ukončí aplikaci.
      */
     static void checkAccessToLibraries() {
+        try {
+            LOGGER.log(Level.FINE, "Knihovny: {0}, {1}, {2}", new Object[]{AdvancedRTFEditorKit.class.getName(), Thumbnails.class.getName(), ImageCodec.class.getName()});
+        } catch (NoClassDefFoundError ex) {
+            exitForMissingLibraries(ex);
+        }
+    }
+    
+    /**
+     * Inicializuje externí knihovny (aby se to nemuselo dělat až při jejich prvním použití). Běží na pozadí.
+     * Pokud jsou knihovny narušeny, tak vyhodí varovnou hlášku a ukončí aplikaci.
+     */
+    static void loadLibraries() {
         try {
             new AdvancedRTFEditorKit();
             Thumbnails.of("nevim");
             ImageCodec.getCodecs();
-        } catch (NoClassDefFoundError | Exception ex) {
-            LOGGER.log(Level.SEVERE, "Ve složce s exe souborem nebyly nalezeny knihovny ve složce \"lib\" nebo jsou knihovny narušeny. ("+ex.getMessage()+")", ex);
-            new ErrorDialog(new JFrame(),"Ve složce s exe souborem nebyly nalezeny knihovny (lib) nebo jsou soubory narušeny.");
-            ErrorLogger.close();
-            System.exit(0);
+        } catch (final NoClassDefFoundError | Exception ex) {
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    exitForMissingLibraries(ex);
+                }
+            });
         }
     }
+    
+    /**
+     * Vyhodí varovnou hlášku o chybějících nebo narušených knihovnách a ukončí aplikaci.
+     * @param ex chyba, která nastala při přístupu ke knihovnám
+     */
+    private static void exitForMissingLibraries(Throwable ex) {
+        LOGGER.log(Level.SEVERE, "Ve složce s exe souborem nebyly nalezeny knihovny ve složce \"lib\" nebo jsou knihovny narušeny. ("+ex.getMessage()+")", ex);
+        new ErrorDialog(new JFrame(),"Ve složce s exe souborem nebyly nalezeny knihovny (lib) nebo jsou soubory narušeny.");
+        ErrorLogger.close();
+        System.exit(0);
+    }
 
     /************************************************************************************************
     Deklarace veřejných metod.
@@ -182,7 +245,43 @@ public class Controller
      * @param file soubor, který se má v editoru otevřít
      */
     public void setVisible(String file) {
-        model.clearDocument();
+        StartupProfiler.await("čekání na registraci fontů", fontRegistration);
+        boolean recover = false;
+        if(model.hasUnsavedSession()){
+            StartupProfiler.phase("kontrola neuložených změn");
+            File unsavedFile = null;
+            try {
+                unsavedFile = model.getUnsavedSessionFile();
+            } catch (IOException ex) {
+                LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
+            }
+            if(file == null || isSameFile(unsavedFile, new File(file))){
+                recover = view.raiseOptionDialog("Při posledním spuštění editoru nebyly uloženy všechny změny v dokumentu. Chcete je obnovit?", "Obnovení neuložených změn");
+            }else{
+                //otevírá se jiný soubor, takže se neuložené změny bez obnovení nezahodí, ale zůstanou pro příští spuštění
+                String unsavedName = unsavedFile == null ? "v novém dokumentu" : "v dokumentu "+unsavedFile.getName();
+                recover = view.raiseOptionDialog("Při posledním spuštění editoru nebyly uloženy všechny změny "+unsavedName+". Chcete je obnovit místo otevření souboru "+new File(file).getName()+"?\n"
+                        + "(Pokud ne, zůstanou neuložené změny zachovány pro příští spuštění editoru.)", "Obnovení neuložených změn");
+                if(!recover){
+                    model.postponeUnsavedSession();
+                }
+            }
+            StartupProfiler.userPhase("dialog obnovení");
+        }
+        if(recover){
+            try {
+                model.recoverSession();
+                file = null;
+            } catch (IOException | BadLocationException ex) {
+                LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
+                //žurnál se nesmí smazat, zůstane pro příští spuštění (např. až bude dostupný soubor, ze kterého vychází)
+                model.postponeUnsavedSession();
+                view.raiseErrorDialog("Neuložené změny se nepodařilo obnovit. Zůstaly zachovány pro příští spuštění editoru.");
+                model.clearDocument();
+            }
+        }else{
+            model.clearDocument();
+        }
         
         if(file != null){
             try {
@@ -193,30 +292,50 @@ public class Controller
         }
         
         if(model.isRemoteFunctionSettingsSetup()){
-            ScheduledExecutorService executor = Executors.newScheduledThreadPool(1);
-            executor.scheduleAtFixedRate(new functionSetupPeriodicChecker(), 0, 2, TimeUnit.SECONDS);
+            model.watchGlobalFunctionsSetup(new FunctionSetupChangeListener());
         }
+        StartupProfiler.phase("otevření dokumentu");
         
         raiseNameForm();
+        StartupProfiler.userPhase("zadání jména");
         view.focusEditor();
         refreshButtonPanel();
         
         view.setVisible(true);
-        
-        try {
-            Thread.sleep(200);
-        } catch (InterruptedException ex) {
-            LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
-        }
+        StartupProfiler.phase("zobrazení okna");
         
         model.transformContetnOfSystemClipboardToLocalClipboard();
-        model.ownClipBoard();
+        
+        //editor je připraven k psaní, až se zpracují všechny události čekající po zobrazení okna (včetně vykreslení)
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                StartupProfiler.finish();
+            }
+        });
     }
 
     /************************************************************************************************
     Deklarace soukromých metod.
     ************************************************************************************************/
     
+    /**
+     * Zjistí, zda jde o stejný soubor.
+     * @param file1 první soubor (může být null)
+     * @param file2 druhý soubor
+     * @return true pokud jde o stejný soubor
+     */
+    private boolean isSameFile(File file1, File file2){
+        if(file1 == null){
+            return false;
+        }
+        try {
+            return file1.getCanonicalFile().equals(file2.getCanonicalFile());
+        } catch (IOException ex) {
+            return file1.getAbsoluteFile().equals(file2.getAbsoluteFile());
+        }
+    }
+    
     /**
      * Nastaví všechny listenery pro hlavní tlačítka editoru.
      */
@@ -286,25 +405,7 @@ public class Controller
      * @param file soubor, do kterého chceme data uložit (může být null, pokud existuje locaFile)
      */
     private void saveFile(File file){
-        view.setWorkingCursor(true);
-        try {
-            model.saveLocalFile(file);
-        } catch (FileNotFoundException ex) {
-            view.raiseErrorDialog("Nelze otevřít soubor: " + ex.getLocalizedMessage());
-        } catch (IOException ex) {
-            view.raiseErrorDialog("Při zapisování nastala chyba: " + ex.getLocalizedMessage());
-        } catch (BadLocationException ex) {
-            LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
-        }
-        
-        try {
-            model.saveRemoteFile();
-        } catch (FileNotFoundException ex) {
-            LOGGER.log(Level.SEVERE, ex.getMessage()+" Je potřeba spustit administrační nástroj a nastavit správně obsah konfiguračního souboru.", ex);
-        } catch (IOException | BadLocationException ex) {
-            LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
-        }
-        view.setWorkingCursor(false);
+        model.saveFileInBackground(file, new SaveProgressListener());
     }
     
     /**
@@ -511,16 +612,9 @@ public class Controller
                     file = fc.getSelectedFile();
                     try {
                         view.setWorkingCursor(true);
-                        model.readFile(file);
-                        try {
-                            model.saveLocalFile(file);
-                        }catch (FileNotFoundException ex){
-                            //otevře se jako kopie, nebude vázáno na soubor
-                        }
+                        model.openLocalFile(file);
                         view.setWorkingCursor(false);
                         raiseNameForm();
-                    }catch (BadLocationException ex){
-                        LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
                     }catch (FileNotFoundException ex) {
                         view.raiseErrorDialog("Soubor "+file.getAbsolutePath()+" neexistuje.");
                     }catch (IOException ex) {
@@ -707,16 +801,24 @@ public class Controller
     }
     
     /**
-     * Listener pro uzavření hlavního okna. (Ukončení aplikace.)
+     * Listener pro aktivaci a uzavření hlavního okna. (Uzavření ukončí aplikaci.)
      */
     private class MainFrameListener extends WindowAdapter{
+        @Override
+        public void windowActivated(WindowEvent e) {
+            //obsah mohl být do systémové schránky vložen jinou aplikací
+            model.transformContetnOfSystemClipboardToLocalClipboard();
+        }
+        
         @Override
         public void windowClosing(WindowEvent e) {
             if(saveFileIfNeed()){
                 return;
             }
-            System.exit(0);
+            model.waitForSaving();
+            model.closeJournal();
             ErrorLogger.close();
+            System.exit(0);
         }
     }
     
@@ -748,12 +850,60 @@ public class Controller
         }
     }
     
+    /**
+     * Listener průběhu ukládání dokumentu na pozadí.
+     */
+    private class SaveProgressListener implements SaveListener{
+        @Override
+        public void saveStarted() {
+            view.setStatus("ukládání…");
+        }
+
+        @Override
+        public void saveProgress(String description) {
+            view.setStatus(description+"…");
+        }
+
+        @Override
+        public void saveFinished(Exception error) {
+            view.setStatus(remoteQueueStatus);
+            if(error instanceof FileNotFoundException){
+                view.raiseErrorDialog("Nelze otevřít soubor: " + error.getLocalizedMessage());
+            }else if(error instanceof IOException){
+                view.raiseErrorDialog("Při zapisování nastala chyba: " + error.getLocalizedMessage());
+            }else if(error != null){
+                LOGGER.log(Level.SEVERE, error.getMessage(), error);
+            }
+        }
+    }
+    
+    /**
+     * Listener stavu fronty kopií, které čekají na odeslání do sdíleného úložiště.
+     * Stav fronty se zobrazuje v titulku hlavního okna, pokud zrovna neprobíhá ukládání.
+     */
+    private class RemoteQueueStatusListener implements RemoteQueueListener{
+        @Override
+        public void queueChanged(int pending, boolean unavailable) {
+            if(pending == 0){
+                remoteQueueStatus = null;
+            }else if(unavailable){
+                remoteQueueStatus = "sdílené úložiště je nedostupné, na odeslání čeká kopií: "+pending;
+            }else{
+                remoteQueueStatus = "odesílání do sdíleného úložiště (čeká kopií: "+pending+")";
+            }
+            if(!model.isSaving()){
+                view.setStatus(remoteQueueStatus);
+            }
+        }
+    }
+    
     /**
      * Listener pro změnu obsahu schránky OS.
      */
     private class ClipBoardListener implements FlavorListener{ 
         @Override 
         public void flavorsChanged(FlavorEvent e) {
+            model.transformContetnOfSystemClipboardToLocalClipboard();
             setPasteButton();
         }
     }
@@ -868,10 +1018,7 @@ public class Controller
                 view.hideAspectRatioWarning();
                 resizable = null;
                 
-                MyUndoManager undoManager = MyUndoManager.getUndoManager();
-                undoManager.isGroup(true);
-                    view.changeSizeOfPicture(pressedView,w,h);
-                undoManager.isGroup(false);
+                view.changeSizeOfPicture(pressedView,w,h);
                 
                 lastPos = null;
                 pressedView = null;
@@ -1073,20 +1220,14 @@ public class Controller
     }
     
     /**
-     * Třída představuje periodický hlídač změny nastavení globálního souboru funkcí.
-     * Každých deset sekund zkontroluje, zda nastaly změny v souboru na sdíleném uložišti.
-     * Pokud změny nastaly, tak podle nich nastaví zobrazení funkcí v editoru.
+     * Listener změn globálního nastavení funkcí na sdíleném úložišti.
+     * Podle nového nastavení nastaví zobrazení funkcí v editoru.
      */
-    private class functionSetupPeriodicChecker implements Runnable{
+    private class FunctionSetupChangeListener implements FunctionSetupListener{
         @Override
-        public void run() {
-            if(model.wasRemoteFunctionSetupModified()){
-                FunctionSetup setup = model.readGlobalFunctionsSetup();
-                if(setup!=null){
-                    view.setupFunctions(setup);
-                    allowPaste = setup.clipboard;
-                }
-            }
+        public void functionSetupChanged(FunctionSetup setup) {
+            view.setupFunctions(setup);
+            allowPaste = setup.clipboard;
         }
     }
     
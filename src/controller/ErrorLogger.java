@@ -60,8 +60,9 @@ public class ErrorLogger {
         txtHandler.setFormatter(formatterTxt);
         logger.addHandler(txtHandler);
 
-        //vytvoření HTML formátoru
+        //vytvoření HTML formátoru (do HTML souboru patří pouze varování a chyby, ne informativní zprávy)
         formatterHTML = new MyHtmlFormatter();
+        htmlHandler.setLevel(Level.WARNING);
         htmlHandler.setFormatter(formatterHTML);
         logger.addHandler(htmlHandler);
     }
@@ -0,0 +1,167 @@
+//==============================================================================
+// Copyright Jan Brzobohatý 2015.
+// Distributed under the MIT License.
+// (See accompanying file LICENSE or copy at http://opensource.org/licenses/MIT)
+//==============================================================================
+
+package controller;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Třída měří dobu jednotlivých fází spuštění editoru a spouští na pozadí činnosti,
+ * na které nemusí zobrazení hlavního okna čekat.
+ * Po zobrazení hlavního okna zaloguje, jak dlouho trvalo, než byl editor připraven k psaní.
+ * Fáze na hlavní cestě se měří ve vlákně pro obsluhu událostí (EDT).
+ * @author Jan Brzobohatý
+ */
+class StartupProfiler {
+    /************************************************************************************************
+    Deklarace proměnných a konstant.
+    ************************************************************************************************/
+
+    /**
+     * Čas začátku měření (v ns).
+     */
+    private static long started;
+
+    /**
+     * Čas konce poslední fáze (v ns).
+     */
+    private static long lastMark;
+
+    /**
+     * Doba, kterou uživatel strávil v dialozích během spuštění (v ns). Nezapočítává se do celkové doby.
+     */
+    private static long userNanos;
+
+    /**
+     * Doba od spuštění JVM do začátku měření (v ms).
+     */
+    private static long jvmMillis;
+
+    /**
+     * Popis jednotlivých fází.
+     */
+    private static final StringBuilder PHASES = new StringBuilder();
+
+    /**
+     * Vlákna pro činnosti, které běží na pozadí souběžně se spouštěním editoru.
+     */
+    private static final ExecutorService BACKGROUND = Executors.newFixedThreadPool(2, new ThreadFactory() {
+        private final AtomicInteger number = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "Typon-spousteni-"+number.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Globální logger chyb
+     */
+    private final static Logger LOGGER = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+
+    /************************************************************************************************
+    Deklarace konstruktorů a továrních metod.
+    ************************************************************************************************/
+
+    private StartupProfiler(){}
+
+    /************************************************************************************************
+    Deklarace statických metod.
+    ************************************************************************************************/
+
+    /**
+     * Začne měřit spuštění editoru.
+     */
+    static void begin(){
+        started = System.nanoTime();
+        lastMark = started;
+        jvmMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+    }
+
+    /**
+     * Ukončí fázi spuštění a zapamatuje si její dobu.
+     * @param name název fáze
+     */
+    static void phase(String name){
+        long now = System.nanoTime();
+        appendPhase(name, now-lastMark);
+        lastMark = now;
+    }
+
+    /**
+     * Ukončí fázi, ve které se čekalo na uživatele (např. na odpověď v dialogu).
+     * Doba této fáze se nezapočítává do celkové doby spuštění.
+     * @param name název fáze
+     */
+    static void userPhase(String name){
+        long now = System.nanoTime();
+        userNanos += now-lastMark;
+        lastMark = now;
+    }
+
+    /**
+     * Spustí činnost na pozadí a zaloguje, jak dlouho trvala.
+     * @param name název činnosti
+     * @param task činnost
+     * @return výsledek činnosti (lze na něj počkat)
+     */
+    static Future<?> inBackground(final String name, final Runnable task){
+        return BACKGROUND.submit(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                task.run();
+                LOGGER.log(Level.INFO, String.format("Spuštění editoru (na pozadí): %s %d ms.", name, (System.nanoTime()-start)/1000000));
+            }
+        });
+    }
+
+    /**
+     * Počká na dokončení činnosti běžící na pozadí. Doba čekání se započítá jako samostatná fáze.
+     * @param name název fáze
+     * @param task činnost běžící na pozadí
+     */
+    static void await(String name, Future<?> task){
+        try {
+            task.get();
+        } catch (InterruptedException ex) {
+            LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            LOGGER.log(Level.SEVERE, ex.getCause().getMessage(), ex.getCause());
+        }
+        phase(name);
+    }
+
+    /**
+     * Ukončí měření (editor je připraven k psaní) a zaloguje doby jednotlivých fází.
+     */
+    static void finish(){
+        phase("první vykreslení");
+        long total = (lastMark-started-userNanos)/1000000;
+        LOGGER.log(Level.INFO, String.format("Editor připraven k psaní za %d ms od spuštění JVM (JVM %d ms%s).", jvmMillis+total, jvmMillis, PHASES));
+        PHASES.setLength(0);
+    }
+
+    /**
+     * Přidá do popisu fází jednu fázi.
+     * @param name název fáze
+     * @param nanos doba fáze (v ns)
+     */
+    private static void appendPhase(String name, long nanos){
+        PHASES.append(", ").append(name).append(' ').append(nanos/1000000).append(" ms");
+    }
+}
@@ -0,0 +1,131 @@
+//==============================================================================
+// Copyright Jan Brzobohatý 2015.
+// Distributed under the MIT License.
+// (See accompanying file LICENSE or copy at http://opensource.org/licenses/MIT)
+//==============================================================================
+
+package model;
+
+import java.awt.Toolkit;
+import java.awt.datatransfer.Clipboard;
+import java.awt.datatransfer.UnsupportedFlavorException;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Třída zajišťuje veškerý přístup k systémové schránce v jednom samostatném vlákně.
+ * Práce se schránkou tak nikdy neblokuje vlákno pro obsluhu událostí (EDT) a jednotlivé přístupy se nepředbíhají.
+ * Pokud je systémová schránka zrovna obsazená jinou aplikací (IllegalStateException),
+ * tak se přístup opakuje s postupně se prodlužujícím odstupem.
+ * @author Jan Brzobohatý
+ */
+class ClipboardSynchronizer {
+    /************************************************************************************************
+    Deklarace proměnných a konstant.
+    ************************************************************************************************/
+
+    /**
+     * Nejvyšší počet pokusů o přístup k obsazené schránce.
+     */
+    private static final int MAX_ATTEMPTS = 8;
+
+    /**
+     * Odstup prvního opakování přístupu k obsazené schránce (v ms). Každé další opakování má dvojnásobný odstup.
+     */
+    private static final long FIRST_RETRY_DELAY = 10;
+
+    /**
+     * Vlákno pro přístup k systémové schránce.
+     */
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "Typon-schranka");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Globální logger chyb
+     */
+    private final static Logger LOGGER = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+
+    /************************************************************************************************
+    Deklarace veřejných metod.
+    ************************************************************************************************/
+
+    /**
+     * Zařadí práci se systémovou schránkou do fronty. Práce se provede ve vlákně pro přístup ke schránce
+     * (po dokončení všech dříve zařazených prací). Pokud je schránka obsazená, tak se celá práce zopakuje.
+     * @param task práce se systémovou schránkou
+     */
+    void submit(final ClipboardTask task){
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                runWithRetry(task);
+            }
+        });
+    }
+
+    /************************************************************************************************
+    Deklarace soukromých metod.
+    ************************************************************************************************/
+
+    /**
+     * Provede práci se systémovou schránkou. Pokud je schránka obsazená, tak práci zopakuje.
+     * (Běží ve vlákně pro přístup ke schránce.)
+     * @param task práce se systémovou schránkou
+     */
+    private void runWithRetry(ClipboardTask task){
+        long delay = FIRST_RETRY_DELAY;
+        for(int attempt = 1; ; attempt++){
+            try {
+                task.run(Toolkit.getDefaultToolkit().getSystemClipboard());
+                if(attempt > 1){
+                    LOGGER.log(Level.INFO, "Systémová schránka byla obsazená, přístup se zdařil na "+attempt+". pokus.");
+                }
+                return;
+            } catch (IllegalStateException ex) {
+                if(attempt == MAX_ATTEMPTS){
+                    LOGGER.log(Level.SEVERE, "Systémová schránka je obsazená jinou aplikací, ani po "+attempt+" pokusech se k ní nepodařilo přistoupit.", ex);
+                    return;
+                }
+            } catch (IOException | UnsupportedFlavorException ex) {
+                LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
+                return;
+            }
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            delay *= 2;
+        }
+    }
+
+    /************************************************************************************************
+    Deklarace soukromých tříd.
+    ************************************************************************************************/
+
+    /**
+     * Práce se systémovou schránkou.
+     * Musí jít bezpečně zopakovat (pokud je schránka obsazená, tak se provede znovu celá).
+     */
+    interface ClipboardTask {
+
+        /**
+         * Provede práci se systémovou schránkou. (Volá se ve vlákně pro přístup ke schránce.)
+         * @param clipboard systémová schránka
+         * @throws IOException Pokud data ve schránce nejsou dostupná.
+         * @throws UnsupportedFlavorException Pokud data ve schránce nejsou v požadovaném formátu.
+         */
+        void run(Clipboard clipboard) throws IOException, UnsupportedFlavorException;
+    }
+}
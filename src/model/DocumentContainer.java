@@ -0,0 +1,350 @@
+//==============================================================================
+// Copyright Jan Brzobohatý 2015.
+// Distributed under the MIT License.
+// (See accompanying file LICENSE or copy at http://opensource.org/licenses/MIT)
+//==============================================================================
+
+package model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+import javax.swing.Icon;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument.ElementSpec;
+import javax.swing.text.Element;
+import javax.swing.text.MutableAttributeSet;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.StyleContext;
+
+/**
+ * Třída zapisuje a čte dokument ve formátu souboru .typon.
+ * Soubor je zip archiv, který obsahuje záznam se strukturou dokumentu (odstavce a úseky textu s jejich atributy)
+ * a pro každý obrázek samostatný záznam s obrázkem v jeho původním zakódovaném tvaru (JPEG, PNG, ...).
+ * Stejné obrázky se ukládají pouze jednou a při čtení se všem jejich výskytům přiřadí jeden společný dekódovaný obrázek.
+ * Starší soubory .typon jsou ve formátu RTF a čte je přímo {@link MyEditorKit}.
+ * @author Jan Brzobohatý
+ */
+class DocumentContainer {
+    /************************************************************************************************
+    Deklarace proměnných a konstant.
+    ************************************************************************************************/
+
+    /**
+     * Název záznamu se strukturou dokumentu.
+     */
+    private static final String STRUCTURE_ENTRY = "dokument";
+
+    /**
+     * Složka se záznamy obrázků.
+     */
+    private static final String IMAGES_DIRECTORY = "obrazky/";
+
+    /**
+     * Verze formátu záznamu se strukturou dokumentu.
+     */
+    private static final int VERSION = 2;
+
+    /**
+     * Úvodní bajty každého zip archivu.
+     */
+    private static final byte[] ZIP_SIGNATURE = {'P', 'K', 3, 4};
+
+    /**
+     * Označení úseku textu bez obrázku.
+     */
+    private static final int NO_IMAGE = -1;
+
+    /************************************************************************************************
+    Deklarace konstruktorů a továrních metod.
+    ************************************************************************************************/
+
+    private DocumentContainer(){}
+
+    /************************************************************************************************
+    Deklarace statických metod.
+    ************************************************************************************************/
+
+    /**
+     * Zjistí, zda vstup obsahuje dokument v tomto formátu. Vstup musí podporovat mark/reset a zůstane nepřečtený.
+     * @param input vstup
+     * @return true pokud se jedná o soubor v tomto formátu (a ne o starší soubor ve formátu RTF)
+     * @throws IOException Pokud nastala chyba při čtení.
+     */
+    static boolean isContainer(InputStream input) throws IOException{
+        input.mark(ZIP_SIGNATURE.length);
+        try{
+            for (byte signatureByte : ZIP_SIGNATURE) {
+                if (input.read() != signatureByte) {
+                    return false;
+                }
+            }
+            return true;
+        }finally{
+            input.reset();
+        }
+    }
+
+    /**
+     * Zapíše dokument.
+     * @param document dokument (nesmí se během zápisu měnit, proto se ukládá jeho kopie nebo se zapisuje ve vlákně EDT)
+     * @param output výstup (nezavírá se)
+     * @throws IOException Pokud nastala chyba při zápisu.
+     * @throws BadLocationException Pokud byla nastavena pozice, která v dokumentu neexistuje.
+     */
+    static void write(MyDocument document, OutputStream output) throws IOException, BadLocationException{
+        List<StoredImageIcon> images = new ArrayList<>();
+        //stejné obrázky (podle otisku obsahu) se uloží pouze jednou a všechny jejich výskyty na ně odkazují
+        Map<Icon, Integer> iconIndexes = new IdentityHashMap<>();
+        Map<String, Integer> hashIndexes = new HashMap<>();
+        ByteArrayOutputStream structure = new ByteArrayOutputStream();
+        DataOutputStream structureOutput = new DataOutputStream(structure);
+
+        Element root = document.getDefaultRootElement();
+        structureOutput.writeInt(VERSION);
+        structureOutput.writeInt(root.getElementCount());
+        for(int i = 0; i < root.getElementCount(); i++){
+            Element paragraph = root.getElement(i);
+            structureOutput.writeInt(StyleConstants.getAlignment(paragraph.getAttributes()));
+            structureOutput.writeInt(paragraph.getElementCount());
+            for(int j = 0; j < paragraph.getElementCount(); j++){
+                Element run = paragraph.getElement(j);
+                AttributeSet attrs = run.getAttributes();
+                structureOutput.writeUTF(StyleConstants.getFontFamily(attrs));
+                structureOutput.writeInt(StyleConstants.getFontSize(attrs));
+                structureOutput.writeBoolean(StyleConstants.isBold(attrs));
+                Icon icon = StyleConstants.getIcon(attrs);
+                if(icon == null){
+                    structureOutput.writeInt(NO_IMAGE);
+                }else{
+                    Integer index = iconIndexes.get(icon);
+                    if(index == null){
+                        StoredImageIcon stored = StoredImageIcon.of(icon);
+                        index = hashIndexes.get(stored.getContentHash());
+                        if(index == null){
+                            index = images.size();
+                            images.add(stored);
+                            hashIndexes.put(stored.getContentHash(), index);
+                        }
+                        iconIndexes.put(icon, index);
+                    }
+                    structureOutput.writeInt(index);
+                    structureOutput.writeInt(ImageAttributes.getWidth(attrs));
+                    structureOutput.writeInt(ImageAttributes.getHeight(attrs));
+                }
+                byte[] text = document.getText(run.getStartOffset(), run.getEndOffset()-run.getStartOffset()).getBytes(StandardCharsets.UTF_8);
+                structureOutput.writeInt(text.length);
+                structureOutput.write(text);
+            }
+        }
+        structureOutput.flush();
+
+        ZipOutputStream zip = new ZipOutputStream(output);
+        zip.putNextEntry(new ZipEntry(STRUCTURE_ENTRY));
+        structure.writeTo(zip);
+        zip.closeEntry();
+        for(int i = 0; i < images.size(); i++){
+            StoredImageIcon image = images.get(i);
+            writeStoredEntry(zip, IMAGES_DIRECTORY+i+"."+image.getFileExtension(), image.getEncoded());
+        }
+        zip.finish();
+    }
+
+    /**
+     * Přečte dokument a vloží ho na danou pozici.
+     * Do prázdného dokumentu se celý obsah vloží jednou strukturální změnou.
+     * @param input vstup (nezavírá se)
+     * @param document dokument
+     * @param pos pozice v dokumentu
+     * @throws IOException Pokud nastala chyba při čtení nebo soubor není platný.
+     * @throws BadLocationException Pokud daná pozice v dokumentu neexistuje.
+     */
+    static void read(InputStream input, MyDocument document, int pos) throws IOException, BadLocationException{
+        byte[] structure = null;
+        //obrázky jsou očíslované v pořadí, v jakém se poprvé vyskytují v dokumentu
+        Map<Integer, StoredImageIcon> images = new TreeMap<>();
+
+        ZipInputStream zip = new ZipInputStream(input);
+        ZipEntry entry;
+        while((entry = zip.getNextEntry()) != null){
+            String name = entry.getName();
+            if(name.equals(STRUCTURE_ENTRY)){
+                structure = readEntry(zip);
+            }else if(name.startsWith(IMAGES_DIRECTORY)){
+                int index = Integer.parseInt(name.substring(IMAGES_DIRECTORY.length(), name.lastIndexOf('.')));
+                images.put(index, StoredImageIcon.read(readEntry(zip)));
+            }
+        }
+        if(structure == null){
+            throw new IOException("Soubor neobsahuje strukturu dokumentu.");
+        }
+
+        List<Paragraph> paragraphs = readStructure(new DataInputStream(new ByteArrayInputStream(structure)), images);
+        if(pos == 0 && document.getLength() == 0){
+            document.replaceContent(createElementSpecs(document, paragraphs));
+        }else{
+            insertParagraphs(document, paragraphs, pos);
+        }
+    }
+
+    /************************************************************************************************
+    Deklarace soukromých metod.
+    ************************************************************************************************/
+
+    /**
+     * Zapíše do archivu nekomprimovaný záznam. (Obrázky už jsou zkomprimované.)
+     * @param zip archiv
+     * @param name název záznamu
+     * @param content obsah záznamu
+     * @throws IOException Pokud nastala chyba při zápisu.
+     */
+    private static void writeStoredEntry(ZipOutputStream zip, String name, byte[] content) throws IOException{
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(content.length);
+        entry.setCompressedSize(content.length);
+        entry.setCrc(crc.getValue());
+        zip.putNextEntry(entry);
+        zip.write(content);
+        zip.closeEntry();
+    }
+
+    /**
+     * Přečte celý obsah právě otevřeného záznamu archivu.
+     * @param zip archiv
+     * @return obsah záznamu
+     * @throws IOException Pokud nastala chyba při čtení.
+     */
+    private static byte[] readEntry(ZipInputStream zip) throws IOException{
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while((count = zip.read(buffer)) != -1){
+            content.write(buffer, 0, count);
+        }
+        return content.toByteArray();
+    }
+
+    /**
+     * Přečte strukturu dokumentu.
+     * @param input vstup záznamu se strukturou
+     * @param images přečtené obrázky podle jejich pořadí
+     * @return odstavce dokumentu
+     * @throws IOException Pokud nastala chyba při čtení nebo struktura není platná.
+     */
+    private static List<Paragraph> readStructure(DataInputStream input, Map<Integer, StoredImageIcon> images) throws IOException{
+        int version = input.readInt();
+        //verze 1 neukládala rozměry obrázků
+        if(version != 1 && version != VERSION){
+            throw new IOException("Nepodporovaná verze souboru.");
+        }
+        int paragraphCount = input.readInt();
+        List<Paragraph> paragraphs = new ArrayList<>(paragraphCount);
+        for(int i = 0; i < paragraphCount; i++){
+            Paragraph paragraph = new Paragraph();
+            StyleConstants.setAlignment(paragraph.attrs, input.readInt());
+            int runCount = input.readInt();
+            for(int j = 0; j < runCount; j++){
+                MutableAttributeSet attrs = new SimpleAttributeSet();
+                StyleConstants.setFontFamily(attrs, input.readUTF());
+                StyleConstants.setFontSize(attrs, input.readInt());
+                StyleConstants.setBold(attrs, input.readBoolean());
+                int image = input.readInt();
+                if(image != NO_IMAGE){
+                    StoredImageIcon icon = images.get(image);
+                    if(icon == null){
+                        throw new IOException("V souboru chybí obrázek číslo "+image+".");
+                    }
+                    StyleConstants.setIcon(attrs, icon);
+                    if(version >= 2){
+                        ImageAttributes.setSize(attrs, input.readInt(), input.readInt());
+                    }
+                }
+                byte[] text = new byte[input.readInt()];
+                input.readFully(text);
+                paragraph.runAttrs.add(attrs);
+                paragraph.runTexts.add(new String(text, StandardCharsets.UTF_8));
+            }
+            paragraphs.add(paragraph);
+        }
+        return paragraphs;
+    }
+
+    /**
+     * Vytvoří specifikace elementů dokumentu (pro jeho vytvoření jednou strukturální změnou).
+     * @param document dokument, pro který se specifikace vytváří
+     * @param paragraphs odstavce dokumentu
+     * @return specifikace elementů
+     */
+    private static ElementSpec[] createElementSpecs(MyDocument document, List<Paragraph> paragraphs){
+        List<ElementSpec> specs = new ArrayList<>();
+        specs.add(new ElementSpec(document.getDefaultRootElement().getAttributes().copyAttributes(), ElementSpec.StartTagType));
+        AttributeSet defaultStyle = document.getStyle(StyleContext.DEFAULT_STYLE);
+        for(Paragraph paragraph : paragraphs){
+            paragraph.attrs.setResolveParent(defaultStyle);
+            specs.add(new ElementSpec(paragraph.attrs, ElementSpec.StartTagType));
+            for(int i = 0; i < paragraph.runTexts.size(); i++){
+                char[] text = paragraph.runTexts.get(i).toCharArray();
+                specs.add(new ElementSpec(paragraph.runAttrs.get(i), ElementSpec.ContentType, text, 0, text.length));
+            }
+            specs.add(new ElementSpec(null, ElementSpec.EndTagType));
+        }
+        return specs.toArray(new ElementSpec[specs.size()]);
+    }
+
+    /**
+     * Vloží odstavce do neprázdného dokumentu na danou pozici.
+     * Poslední znak nového řádku posledního odstavce se nevkládá, protože na jeho místě pokračuje původní obsah.
+     * @param document dokument
+     * @param paragraphs odstavce
+     * @param pos pozice v dokumentu
+     * @throws BadLocationException Pokud daná pozice v dokumentu neexistuje.
+     */
+    private static void insertParagraphs(MyDocument document, List<Paragraph> paragraphs, int pos) throws BadLocationException{
+        for(int i = 0; i < paragraphs.size(); i++){
+            Paragraph paragraph = paragraphs.get(i);
+            int start = pos;
+            for(int j = 0; j < paragraph.runTexts.size(); j++){
+                String text = paragraph.runTexts.get(j);
+                if(i == paragraphs.size()-1 && j == paragraph.runTexts.size()-1 && text.endsWith("\n")){
+                    text = text.substring(0, text.length()-1);
+                }
+                document.insertStringDirectly(pos, text, paragraph.runAttrs.get(j));
+                pos += text.length();
+            }
+            document.setParagraphAttributes(start, Math.max(pos-start, 1), paragraph.attrs, false);
+        }
+    }
+
+    /************************************************************************************************
+    Deklarace soukromých tříd.
+    ************************************************************************************************/
+
+    /**
+     * Přepravka pro jeden přečtený odstavec.
+     */
+    private static class Paragraph {
+        final MutableAttributeSet attrs = new SimpleAttributeSet();
+        final List<AttributeSet> runAttrs = new ArrayList<>();
+        final List<String> runTexts = new ArrayList<>();
+    }
+}
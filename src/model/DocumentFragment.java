@@ -0,0 +1,200 @@
+//==============================================================================
+// Copyright Jan Brzobohatý 2015.
+// Distributed under the MIT License.
+// (See accompanying file LICENSE or copy at http://opensource.org/licenses/MIT)
+//==============================================================================
+
+package model;
+
+import java.awt.datatransfer.DataFlavor;
+import java.awt.datatransfer.Transferable;
+import java.awt.datatransfer.UnsupportedFlavorException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.Icon;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.MutableAttributeSet;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+
+/**
+ * Třída představuje část dokumentu zkopírovanou do lokální schránky (úseky textu s jejich atributy a obrázky).
+ * Při vložení v tomto editoru se část dokumentu vloží přímo, bez převodu do formátu RTF a zpět.
+ * Obrázky se nekopírují, všechny kopie sdílí stejný obrázek.
+ * Jiným aplikacím se nabízí pouze holý text, který se vytvoří až ve chvíli, kdy si o něj požádají.
+ * @author Jan Brzobohatý
+ */
+class DocumentFragment implements Transferable {
+    /************************************************************************************************
+    Deklarace proměnných a konstant.
+    ************************************************************************************************/
+
+    /**
+     * Formát části dokumentu (lze ho použít pouze v rámci tohoto editoru).
+     */
+    static final DataFlavor FRAGMENT_FLAVOR = new DataFlavor(DocumentFragment.class, "Část dokumentu editoru Typoň");
+
+    /**
+     * Úseky textu.
+     */
+    private final List<String> runTexts = new ArrayList<>();
+
+    /**
+     * Atributy úseků textu.
+     */
+    private final List<AttributeSet> runAttrs = new ArrayList<>();
+
+    /**
+     * Atributy odstavců, které úseky textu ukončují (null u úseků, které odstavec neukončují).
+     */
+    private final List<AttributeSet> paragraphAttrs = new ArrayList<>();
+
+    /**
+     * Holý text (vytvoří se až ve chvíli, kdy je poprvé potřeba).
+     */
+    private String plainText;
+
+    /************************************************************************************************
+    Deklarace konstruktorů a továrních metod.
+    ************************************************************************************************/
+
+    private DocumentFragment(){}
+
+    /**
+     * Zkopíruje část dokumentu.
+     * @param document dokument
+     * @param start začátek kopírované části
+     * @param end konec kopírované části
+     * @return kopie části dokumentu
+     * @throws BadLocationException Pokud daná část v dokumentu neexistuje.
+     */
+    static DocumentFragment copyOf(MyDocument document, int start, int end) throws BadLocationException{
+        DocumentFragment fragment = new DocumentFragment();
+        int pos = start;
+        while(pos < end){
+            Element run = document.getCharacterElement(pos);
+            int runEnd = Math.min(end, run.getEndOffset());
+            String text = document.getText(pos, runEnd-pos);
+            fragment.runTexts.add(text);
+            fragment.runAttrs.add(copyRunAttributes(run.getAttributes()));
+            if(runEnd == run.getEndOffset() && text.endsWith("\n")){
+                MutableAttributeSet attrs = new SimpleAttributeSet();
+                StyleConstants.setAlignment(attrs, StyleConstants.getAlignment(document.getParagraphElement(pos).getAttributes()));
+                fragment.paragraphAttrs.add(attrs);
+            }else{
+                fragment.paragraphAttrs.add(null);
+            }
+            pos = runEnd;
+        }
+        return fragment;
+    }
+
+    /************************************************************************************************
+    Deklarace veřejných metod.
+    ************************************************************************************************/
+
+    /**
+     * Vloží část dokumentu do dokumentu na danou pozici.
+     * Úseky textu se vkládají přímo s jejich atributy (včetně pravidel pro vkládání okolo obrázků).
+     * @param document dokument
+     * @param pos pozice v dokumentu
+     * @return pozice za vloženou částí
+     * @throws BadLocationException Pokud daná pozice v dokumentu neexistuje.
+     */
+    int insertInto(MyDocument document, int pos) throws BadLocationException{
+        for(int i = 0; i < runTexts.size(); i++){
+            int length = document.getLength();
+            document.insertString(pos, runTexts.get(i), runAttrs.get(i));
+            //okolo obrázků se mohou vložit i nové řádky navíc
+            pos += document.getLength()-length;
+            if(paragraphAttrs.get(i) != null){
+                document.setParagraphAttributes(pos-1, 1, paragraphAttrs.get(i), false);
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * @return obsah pro jiné aplikace (holý text, který se vytvoří až ve chvíli, kdy si o něj požádají)
+     */
+    Transferable getPlainTextSelection(){
+        return new Transferable() {
+            @Override
+            public DataFlavor[] getTransferDataFlavors() {
+                return new DataFlavor[]{DataFlavor.stringFlavor};
+            }
+
+            @Override
+            public boolean isDataFlavorSupported(DataFlavor flavor) {
+                return DataFlavor.stringFlavor.equals(flavor);
+            }
+
+            @Override
+            public Object getTransferData(DataFlavor flavor) throws UnsupportedFlavorException {
+                if(!isDataFlavorSupported(flavor)){
+                    throw new UnsupportedFlavorException(flavor);
+                }
+                return getPlainText();
+            }
+        };
+    }
+
+    @Override
+    public DataFlavor[] getTransferDataFlavors() {
+        return new DataFlavor[]{FRAGMENT_FLAVOR, DataFlavor.stringFlavor};
+    }
+
+    @Override
+    public boolean isDataFlavorSupported(DataFlavor flavor) {
+        return FRAGMENT_FLAVOR.equals(flavor) || DataFlavor.stringFlavor.equals(flavor);
+    }
+
+    @Override
+    public Object getTransferData(DataFlavor flavor) throws UnsupportedFlavorException, IOException {
+        if(FRAGMENT_FLAVOR.equals(flavor)){
+            return this;
+        }else if(DataFlavor.stringFlavor.equals(flavor)){
+            return getPlainText();
+        }
+        throw new UnsupportedFlavorException(flavor);
+    }
+
+    /************************************************************************************************
+    Deklarace soukromých metod.
+    ************************************************************************************************/
+
+    /**
+     * @return holý text části dokumentu
+     */
+    private synchronized String getPlainText(){
+        if(plainText == null){
+            StringBuilder text = new StringBuilder();
+            for(String runText : runTexts){
+                text.append(runText);
+            }
+            plainText = text.toString();
+        }
+        return plainText;
+    }
+
+    /**
+     * Zkopíruje atributy úseku textu, které lze v editoru měnit (a obrázek s jeho rozměry).
+     * @param attrs atributy úseku textu v dokumentu
+     * @return kopie atributů
+     */
+    private static AttributeSet copyRunAttributes(AttributeSet attrs){
+        MutableAttributeSet copy = new SimpleAttributeSet();
+        StyleConstants.setFontFamily(copy, StyleConstants.getFontFamily(attrs));
+        StyleConstants.setFontSize(copy, StyleConstants.getFontSize(attrs));
+        StyleConstants.setBold(copy, StyleConstants.isBold(attrs));
+        Icon icon = StyleConstants.getIcon(attrs);
+        if(icon != null){
+            StyleConstants.setIcon(copy, icon);
+            ImageAttributes.setSize(copy, ImageAttributes.getWidth(attrs), ImageAttributes.getHeight(attrs));
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,231 @@
+//==============================================================================
+// Copyright Jan Brzobohatý 2015.
+// Distributed under the MIT License.
+// (See accompanying file LICENSE or copy at http://opensource.org/licenses/MIT)
+//==============================================================================
+
+package model;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.SwingUtilities;
+import javax.swing.text.BadLocationException;
+
+/**
+ * Třída se stará o ukládání dokumentu na pozadí.
+ * Dokument se ukládá z jeho kopie pořízené v okamžiku požadavku na uložení, takže uživatel může dál psát.
+ * Požadavky na uložení, které přijdou v průběhu ukládání, se sloučí do jednoho dalšího uložení.
+ * Všechny veřejné metody se musí volat ve vlákně pro obsluhu událostí (EDT).
+ * @author Jan Brzobohatý
+ */
+class DocumentSaver {
+    /************************************************************************************************
+    Deklarace proměnných a konstant.
+    ************************************************************************************************/
+
+    /**
+     * Stará se o veškerou práci se soubory.
+     */
+    private final FileHandler fileHandler;
+
+    /**
+     * Vlákno, ve kterém probíhá ukládání.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Právě probíhající uložení (null, pokud se zrovna neukládá).
+     */
+    private SaveRequest current;
+
+    /**
+     * Výsledek právě probíhajícího uložení.
+     */
+    private Future<Exception> running;
+
+    /**
+     * Požadavek na uložení, který čeká na dokončení právě probíhajícího uložení (může být null).
+     */
+    private SaveRequest pending;
+
+    /**
+     * Globální logger chyb
+     */
+    private final static Logger LOGGER = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+
+    /************************************************************************************************
+    Deklarace konstruktorů a továrních metod.
+    ************************************************************************************************/
+
+    DocumentSaver(FileHandler fileHandler){
+        this.fileHandler = fileHandler;
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Typon-ukladani");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /************************************************************************************************
+    Deklarace veřejných metod.
+    ************************************************************************************************/
+
+    /**
+     * Požádá o uložení dokumentu do zvoleného souboru a do sdíleného úložiště.
+     * Pokud právě probíhá jiné uložení, tak se tento požadavek provede až po jeho dokončení
+     * (a sloučí se se všemi dalšími požadavky, které mezitím přijdou).
+     * @param document dokument, který se má uložit
+     * @param file soubor, do kterého se má dokument uložit (může být null, pokud existuje lokální soubor)
+     * @param userFirstName křestní jméno uživatele
+     * @param userSurename příjmení uživatele
+     * @param listener listener průběhu ukládání
+     */
+    public void requestSave(MyDocument document, File file, String userFirstName, String userSurename, SaveListener listener){
+        SaveRequest request = new SaveRequest(document, fileHandler.getTargetFile(file), userFirstName, userSurename, listener);
+        if(current != null){
+            pending = request;
+            return;
+        }
+        start(request);
+    }
+
+    /**
+     * Počká, než se dokončí právě probíhající i čekající uložení.
+     * (Volá se před ukončením aplikace.)
+     */
+    public void awaitIdle(){
+        while(current != null){
+            Exception error;
+            try {
+                error = running.get();
+            } catch (InterruptedException | ExecutionException ex) {
+                LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
+                error = ex;
+            }
+            finish(current, error);
+        }
+    }
+
+    /**
+     * @return zda právě probíhá ukládání
+     */
+    public boolean isSaving(){
+        return current != null;
+    }
+
+    /************************************************************************************************
+    Deklarace soukromých metod.
+    ************************************************************************************************/
+
+    /**
+     * Pořídí kopii dokumentu a spustí její ukládání na pozadí.
+     * @param request požadavek na uložení
+     */
+    private void start(final SaveRequest request){
+        current = request;
+        request.listener.saveStarted();
+        final MyDocument snapshot = request.document.createSnapshot();
+        running = executor.submit(new Callable<Exception>() {
+            @Override
+            public Exception call() {
+                final Exception error = save(snapshot, request);
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        finish(request, error);
+                    }
+                });
+                return error;
+            }
+        });
+    }
+
+    /**
+     * Dokončí uložení. Oznámí výsledek a případně spustí čekající uložení.
+     * @param request dokončený požadavek
+     * @param error chyba, která nastala při lokálním uložení (může být null)
+     */
+    private void finish(SaveRequest request, Exception error){
+        //tento požadavek už mohl být dokončen v awaitIdle()
+        if(request != current){
+            return;
+        }
+        current = null;
+        running = null;
+        request.listener.saveFinished(error);
+
+        if(pending != null){
+            SaveRequest next = pending;
+            pending = null;
+            start(next);
+        }
+    }
+
+    /**
+     * Uloží kopii dokumentu do lokálního souboru a do sdíleného úložiště. (Běží ve vlákně pro ukládání.)
+     * @param snapshot kopie dokumentu
+     * @param request požadavek na uložení
+     * @return chyba, která nastala při lokálním uložení (null, pokud se uložení zdařilo)
+     */
+    private Exception save(MyDocument snapshot, SaveRequest request){
+        Exception error = null;
+
+        progress(request, "ukládání souboru "+request.file.getName());
+        try {
+            fileHandler.saveFileWithRemoteCopy(request.file, snapshot, request.userFirstName, request.userSurename);
+        } catch (IOException | BadLocationException ex) {
+            error = ex;
+        }
+        return error;
+    }
+
+    /**
+     * Oznámí (v EDT) přechod ukládání do další fáze.
+     * @param request požadavek na uložení
+     * @param description popis fáze ukládání
+     */
+    private void progress(final SaveRequest request, final String description){
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                if(request == current){
+                    request.listener.saveProgress(description);
+                }
+            }
+        });
+    }
+
+    /************************************************************************************************
+    Deklarace soukromých tříd.
+    ************************************************************************************************/
+
+    /**
+     * Přepravka pro jeden požadavek na uložení.
+     */
+    private static class SaveRequest {
+        final MyDocument document;
+        final File file;
+        final String userFirstName;
+        final String userSurename;
+        final SaveListener listener;
+
+        SaveRequest(MyDocument document, File file, String userFirstName, String userSurename, SaveListener listener) {
+            this.document = document;
+            this.file = file;
+            this.userFirstName = userFirstName;
+            this.userSurename = userSurename;
+            this.listener = listener;
+        }
+    }
+}
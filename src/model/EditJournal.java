@@ -0,0 +1,1006 @@
+//==============================================================================
+// Copyright Jan Brzobohatý 2015.
+// Distributed under the MIT License.
+// (See accompanying file LICENSE or copy at http://opensource.org/licenses/MIT)
+//==============================================================================
+
+package model;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.Icon;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.MutableAttributeSet;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+
+/**
+ * Třída představuje žurnál neuložených změn dokumentu pro obnovení po pádu aplikace nebo vypnutí počítače.
+ * Každá změna dokumentu se zapíše jako záznam na konec souboru žurnálu. Záznamy se zapisují po dávkách
+ * (a neúplná dávka alespoň jednou za sekundu). Na začátku žurnálu je hlavička s cestou k souboru,
+ * ze kterého dokument vychází (tj. naposledy otevřený nebo uložený soubor).
+ * Po uložení dokumentu se z žurnálu odstraní všechny záznamy, které jsou už v uloženém souboru.
+ * V EDT se záznamy jen skládají do dávky. Obrázky se do dávky zapisují jen jako odkaz a jejich zakódování
+ * spolu se vší prací se souborem žurnálu probíhá ve vlastním vlákně žurnálu (v pořadí, v jakém o ni EDT požádalo).
+ * Každá běžící instance editoru má vlastní soubor žurnálu, který má po dobu svého běhu uzamčený.
+ * Všechny metody se musí volat ve vlákně pro obsluhu událostí (EDT).
+ * @author Jan Brzobohatý
+ */
+class EditJournal implements DocumentListener{
+    /************************************************************************************************
+    Deklarace proměnných a konstant.
+    ************************************************************************************************/
+
+    /**
+     * Identifikace souboru žurnálu a verze jeho formátu.
+     */
+    private static final int MAGIC = 0x54594A52;
+    private static final int VERSION = 2;
+
+    /**
+     * Typy záznamů v žurnálu.
+     */
+    private static final byte RECORD_INSERT = 1;
+    private static final byte RECORD_REMOVE = 2;
+    private static final byte RECORD_FORMAT = 3;
+
+    /**
+     * Velikost dávky záznamů, po jejímž naplnění se dávka zapíše do souboru.
+     */
+    private static final int BATCH_SIZE = 4 * 1024;
+
+    /**
+     * Interval (v ms), po kterém se do souboru zapíše i neúplná dávka.
+     */
+    private static final int FLUSH_INTERVAL = 1000;
+
+    /**
+     * Největší počet souborů žurnálu (tj. současně běžících instancí editoru se žurnálem).
+     */
+    private static final int MAX_JOURNALS = 16;
+
+    /**
+     * Soubor žurnálu.
+     */
+    private final File journalFile;
+
+    /**
+     * Zámek souboru žurnálu (null, pokud se soubor nepodařilo uzamknout).
+     */
+    private final FileLock lock;
+
+    /**
+     * Dokument, jehož změny se zaznamenávají.
+     */
+    private final MyDocument document;
+
+    /**
+     * Dávka záznamů, které ještě nebyly zapsány do souboru.
+     */
+    private final ByteArrayOutputStream batch = new ByteArrayOutputStream(BATCH_SIZE);
+    private final DataOutputStream batchOutput = new DataOutputStream(batch);
+
+    /**
+     * Obrázky z dávky, které se zakódují a zapíšou do souboru až ve vlákně žurnálu.
+     */
+    private final List<PendingIcon> pendingIcons = new ArrayList<>();
+
+    /**
+     * Indikátor, zda byly do souboru předány záznamy, které ještě nejsou uloženy na disku.
+     */
+    private boolean unsynced = false;
+
+    /**
+     * Indikátor, zda je zaznamenávání pozastaveno (např. při čtení souboru).
+     */
+    private boolean suspended = true;
+
+    /**
+     * Periodický zápis neúplné dávky.
+     */
+    private final Timer flushTimer;
+
+    /**
+     * Vlákno pro kódování obrázků a práci se souborem žurnálu.
+     */
+    private final ExecutorService writer;
+
+    /**
+     * Otevřený soubor žurnálu (null, pokud se zrovna nezaznamenává). Používá se jen ve vlákně žurnálu.
+     */
+    private FileChannel channel;
+
+    /**
+     * Pozice v žurnálu v okamžiku pořízení kopie dokumentu pro právě probíhající uložení (-1, pokud se neukládá).
+     * Používá se jen ve vlákně žurnálu.
+     */
+    private long savePosition = -1;
+
+    /**
+     * Globální logger chyb
+     */
+    private final static Logger LOGGER = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+
+    /************************************************************************************************
+    Deklarace konstruktorů a továrních metod.
+    ************************************************************************************************/
+
+    /**
+     * Vytvoří žurnál. Zaznamenávání je pozastaveno až do zavolání {@link #reset(java.io.File)} nebo {@link #resume()}.
+     * @param journalFile soubor žurnálu
+     * @param document dokument, jehož změny se mají zaznamenávat
+     */
+    EditJournal(File journalFile, MyDocument document){
+        this(journalFile, null, document);
+    }
+
+    /**
+     * @param journalFile soubor žurnálu
+     * @param lock zámek souboru žurnálu (může být null)
+     * @param document dokument, jehož změny se mají zaznamenávat
+     */
+    private EditJournal(File journalFile, FileLock lock, MyDocument document){
+        this.journalFile = journalFile;
+        this.lock = lock;
+        this.document = document;
+        flushTimer = new Timer(FLUSH_INTERVAL, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                flush(true);
+            }
+        });
+        writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Typon-zurnal");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Tovární metoda. Najde soubor žurnálu, který nepoužívá žádná jiná běžící instance editoru, a uzamkne ho.
+     * Zkouší postupně soubory s daným názvem a s názvy doplněnými o pořadové číslo (_2, _3, ...).
+     * @param journalFile první soubor žurnálu
+     * @param document dokument, jehož změny se mají zaznamenávat
+     * @param recoverable zda se má přednostně použít soubor s neuloženými změnami z minulého spuštění
+     *                    (jinak se použije jen soubor bez neuložených změn, aby zůstaly pro příští spuštění)
+     * @return žurnál (pokud se žádný soubor nepodaří uzamknout, tak neuzamčený žurnál v prvním souboru)
+     */
+    static EditJournal lock(File journalFile, MyDocument document, boolean recoverable){
+        EditJournal empty = null;
+        for(int i = 1; i <= MAX_JOURNALS; i++){
+            File file = i == 1 ? journalFile : new File(journalFile.getPath()+"_"+i);
+            if(empty != null && !file.exists()){
+                continue;
+            }
+            FileLock lock = tryLock(new File(file.getPath()+".lock"));
+            if(lock == null){
+                continue;
+            }
+            EditJournal journal = new EditJournal(file, lock, document);
+            if(journal.hasRecords()){
+                if(recoverable){
+                    if(empty != null){
+                        empty.release();
+                    }
+                    return journal;
+                }
+                journal.release();
+            }else if(empty == null){
+                empty = journal;
+                if(!recoverable){
+                    return empty;
+                }
+            }else{
+                journal.release();
+            }
+        }
+        if(empty != null){
+            return empty;
+        }
+        LOGGER.log(Level.WARNING, "Žádný soubor žurnálu neuložených změn nelze uzamknout, použije se "+journalFile.getPath()+".");
+        return new EditJournal(journalFile, null, document);
+    }
+
+    /************************************************************************************************
+    Deklarace veřejných metod.
+    ************************************************************************************************/
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        if(suspended){
+            return;
+        }
+        try {
+            batchOutput.writeByte(RECORD_INSERT);
+            batchOutput.writeInt(e.getOffset());
+            writeRuns(e.getOffset(), e.getLength(), true);
+            writeParagraphs(e.getOffset(), e.getLength());
+            recordWritten();
+        } catch (IOException | BadLocationException ex) {
+            fail(ex);
+        }
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        if(suspended){
+            return;
+        }
+        try {
+            batchOutput.writeByte(RECORD_REMOVE);
+            batchOutput.writeInt(e.getOffset());
+            batchOutput.writeInt(e.getLength());
+            recordWritten();
+        } catch (IOException ex) {
+            fail(ex);
+        }
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+        if(suspended){
+            return;
+        }
+        try {
+            batchOutput.writeByte(RECORD_FORMAT);
+            batchOutput.writeInt(e.getOffset());
+            batchOutput.writeInt(e.getLength());
+            writeRuns(e.getOffset(), e.getLength(), false);
+            writeParagraphs(e.getOffset(), e.getLength());
+            recordWritten();
+        } catch (IOException | BadLocationException ex) {
+            fail(ex);
+        }
+    }
+
+    /**
+     * Začne nový žurnál, který vychází z daného souboru. (Všechny dosavadní záznamy se zahodí.)
+     * Zaznamenávání se tím obnoví.
+     * @param baseFile soubor, ze kterého dokument vychází (null pro nový dokument)
+     */
+    void reset(final File baseFile){
+        discardBatch();
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                closeChannel();
+                savePosition = -1;
+                try {
+                    File tempFile = File.createTempFile(".typon", ".tmp", journalFile.getAbsoluteFile().getParentFile());
+                    try{
+                        try(FileOutputStream fos = new FileOutputStream(tempFile)){
+                            fos.write(createHeader(baseFile));
+                            fos.getFD().sync();
+                        }
+                        moveAtomically(tempFile, journalFile);
+                    }finally{
+                        Files.deleteIfExists(tempFile.toPath());
+                    }
+                    openChannel();
+                } catch (IOException ex) {
+                    fail(ex);
+                }
+            }
+        });
+        start();
+    }
+
+    /**
+     * Pozastaví zaznamenávání změn. (Např. během čtení souboru, jehož obsah je v žurnálu reprezentován hlavičkou.)
+     */
+    void suspend(){
+        flush(false);
+        suspended = true;
+    }
+
+    /**
+     * Obnoví zaznamenávání změn do stávajícího žurnálu.
+     */
+    void resume(){
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                if(channel == null){
+                    try {
+                        openChannel();
+                    } catch (IOException ex) {
+                        fail(ex);
+                    }
+                }
+            }
+        });
+        start();
+    }
+
+    /**
+     * Zapamatuje si současný konec žurnálu jako okamžik pořízení kopie dokumentu pro uložení.
+     * (Volá se těsně před pořízením kopie dokumentu.)
+     */
+    void markSave(){
+        flush(false);
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    savePosition = channel == null ? -1 : channel.size();
+                } catch (IOException ex) {
+                    fail(ex);
+                }
+            }
+        });
+    }
+
+    /**
+     * Zkrátí žurnál po úspěšném uložení. Záznamy až po okamžik pořízení kopie dokumentu jsou už v uloženém souboru,
+     * takže se zahodí a žurnál nadále vychází z uloženého souboru.
+     * @param savedFile uložený soubor
+     */
+    void compactAfterSave(final File savedFile){
+        flush(false);
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                if(savePosition < 0 || channel == null){
+                    return;
+                }
+                try {
+                    long size = channel.size();
+                    ByteBuffer tail = ByteBuffer.allocate((int) (size - savePosition));
+                    while(tail.hasRemaining()){
+                        if(channel.read(tail, savePosition + tail.position()) < 0){
+                            break;
+                        }
+                    }
+                    tail.flip();
+                    closeChannel();
+                    File tempFile = File.createTempFile(".typon", ".tmp", journalFile.getAbsoluteFile().getParentFile());
+                    try{
+                        try(FileOutputStream fos = new FileOutputStream(tempFile)){
+                            fos.write(createHeader(savedFile));
+                            fos.getChannel().write(tail);
+                            fos.getFD().sync();
+                        }
+                        moveAtomically(tempFile, journalFile);
+                    }finally{
+                        Files.deleteIfExists(tempFile.toPath());
+                    }
+                    openChannel();
+                } catch (IOException ex) {
+                    fail(ex);
+                }
+                savePosition = -1;
+            }
+        });
+    }
+
+    /**
+     * Zapomene okamžik pořízení kopie dokumentu. (Pokud se uložení nezdařilo.)
+     */
+    void discardSaveMark(){
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                savePosition = -1;
+            }
+        });
+    }
+
+    /**
+     * (Volá se před zahájením zaznamenávání.)
+     * @return zda žurnál obsahuje alespoň jednu neuloženou změnu z minulého spuštění
+     */
+    boolean hasRecords(){
+        if(!journalFile.isFile()){
+            return false;
+        }
+        try(DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)))){
+            readHeader(input);
+            return input.read() != -1;
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Žurnál neuložených změn nelze přečíst. ("+ex.getMessage()+")", ex);
+            return false;
+        }
+    }
+
+    /**
+     * @return soubor, ze kterého vychází dokument zaznamenaný v žurnálu (null pro nový dokument)
+     * @throws IOException Pokud nastala chyba při čtení žurnálu nebo se soubor od vytvoření žurnálu změnil.
+     */
+    File readBaseFile() throws IOException{
+        try(DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)))){
+            return readHeader(input);
+        }
+    }
+
+    /**
+     * Přehraje všechny záznamy žurnálu do daného dokumentu (který už obsahuje soubor, ze kterého žurnál vychází).
+     * Neúplný poslední záznam (přerušený zápis) se ignoruje.
+     * @param target dokument, do kterého se změny přehrají
+     * @return počet přehraných záznamů
+     * @throws IOException Pokud nastala chyba při čtení žurnálu.
+     * @throws BadLocationException Pokud žurnál neodpovídá obsahu dokumentu.
+     */
+    int replay(MyDocument target) throws IOException, BadLocationException{
+        int count = 0;
+        try(DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)))){
+            readHeader(input);
+            while(true){
+                Record record;
+                try{
+                    int type = input.read();
+                    if(type == -1){
+                        break;
+                    }
+                    record = readRecord((byte) type, input);
+                }catch (EOFException ex){
+                    LOGGER.log(Level.WARNING, "Poslední záznam žurnálu neuložených změn není úplný, bude vynechán.");
+                    break;
+                }
+                record.apply(target);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Ukončí zaznamenávání a smaže žurnál. (Při řádném ukončení aplikace.)
+     * Počká, než vlákno žurnálu dokončí všechnu práci, o kterou bylo dříve požádáno.
+     */
+    void delete(){
+        finish(true);
+    }
+
+    /**
+     * Ukončí zaznamenávání a uvolní soubor žurnálu pro jinou instanci editoru.
+     * Záznamy, které už v žurnálu jsou, v něm zůstanou (např. neuložené změny z minulého spuštění, které se teď neobnovily).
+     */
+    void release(){
+        finish(false);
+    }
+
+    /************************************************************************************************
+    Deklarace soukromých metod.
+    ************************************************************************************************/
+
+    /**
+     * Ukončí zaznamenávání, počká na dokončení práce vlákna žurnálu a odemkne soubor žurnálu.
+     * @param delete zda se má soubor žurnálu smazat
+     */
+    private void finish(final boolean delete){
+        discardBatch();
+        suspended = true;
+        flushTimer.stop();
+        Future<?> finished = writer.submit(new Runnable() {
+            @Override
+            public void run() {
+                closeChannel();
+                if(delete){
+                    try {
+                        Files.deleteIfExists(journalFile.toPath());
+                    } catch (IOException ex) {
+                        LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
+                    }
+                }
+            }
+        });
+        try {
+            finished.get();
+        } catch (InterruptedException | ExecutionException ex) {
+            LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
+        }
+        writer.shutdown();
+        if(lock != null){
+            try {
+                lock.channel().close();
+            } catch (IOException ex) {
+                LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
+            }
+        }
+    }
+
+    /**
+     * Obnoví zaznamenávání změn a jejich periodický zápis.
+     */
+    private void start(){
+        suspended = false;
+        flushTimer.start();
+    }
+
+    /**
+     * Zahodí dávku záznamů, které ještě nebyly předány vláknu žurnálu.
+     */
+    private void discardBatch(){
+        batch.reset();
+        pendingIcons.clear();
+        unsynced = false;
+    }
+
+    /**
+     * Otevře žurnál pro připisování záznamů. (Volá se ve vlákně žurnálu.)
+     * @throws IOException Pokud žurnál nelze otevřít.
+     */
+    private void openChannel() throws IOException{
+        channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+    }
+
+    /**
+     * Uloží zapsané záznamy na disk a zavře žurnál. (Volá se ve vlákně žurnálu.)
+     */
+    private void closeChannel(){
+        if(channel != null){
+            try {
+                channel.force(false);
+                channel.close();
+            } catch (IOException ex) {
+                LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
+            }
+            channel = null;
+        }
+    }
+
+    /**
+     * Po zapsání záznamu do dávky zapíše dávku do souboru, pokud je už plná.
+     */
+    private void recordWritten(){
+        if(batch.size() >= BATCH_SIZE){
+            flush(false);
+        }
+    }
+
+    /**
+     * Předá dávku záznamů vláknu žurnálu k zápisu do souboru.
+     * @param sync zda se mají zapsané záznamy uložit až na disk
+     */
+    private void flush(final boolean sync){
+        if(batch.size() > 0){
+            final byte[] records = batch.toByteArray();
+            final List<PendingIcon> icons = new ArrayList<>(pendingIcons);
+            discardBatch();
+            unsynced = true;
+            writer.execute(new Runnable() {
+                @Override
+                public void run() {
+                    write(records, icons);
+                }
+            });
+        }
+        if(sync && unsynced){
+            unsynced = false;
+            writer.execute(new Runnable() {
+                @Override
+                public void run() {
+                    sync();
+                }
+            });
+        }
+    }
+
+    /**
+     * Zakóduje obrázky z dávky a zapíše dávku do souboru. (Volá se ve vlákně žurnálu.)
+     * Obrázky se kódují dřív, než se cokoli zapíše, aby chyba při kódování nezanechala v žurnálu neúplný záznam.
+     * @param records záznamy z dávky (bez obrázků)
+     * @param icons obrázky, které patří do záznamů
+     */
+    private void write(byte[] records, List<PendingIcon> icons){
+        if(channel == null){
+            return;
+        }
+        try {
+            List<byte[]> encoded = new ArrayList<>(icons.size());
+            for(PendingIcon icon : icons){
+                encoded.add(StoredImageIcon.of(icon.icon).getEncoded());
+            }
+            int position = 0;
+            for(int i = 0; i < icons.size(); i++){
+                int iconPosition = icons.get(i).position;
+                writeFully(ByteBuffer.wrap(records, position, iconPosition - position));
+                ByteBuffer length = ByteBuffer.allocate(4);
+                length.putInt(encoded.get(i).length).flip();
+                writeFully(length);
+                writeFully(ByteBuffer.wrap(encoded.get(i)));
+                position = iconPosition;
+            }
+            writeFully(ByteBuffer.wrap(records, position, records.length - position));
+        } catch (IOException ex) {
+            fail(ex);
+        }
+    }
+
+    /**
+     * Zapíše celý obsah bufferu do souboru žurnálu. (Volá se ve vlákně žurnálu.)
+     * @param buffer buffer
+     * @throws IOException Pokud nastala chyba při zápisu.
+     */
+    private void writeFully(ByteBuffer buffer) throws IOException{
+        while(buffer.hasRemaining()){
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Uloží zapsané záznamy až na disk. (Volá se ve vlákně žurnálu.)
+     */
+    private void sync(){
+        if(channel == null){
+            return;
+        }
+        try {
+            channel.force(false);
+        } catch (IOException ex) {
+            fail(ex);
+        }
+    }
+
+    /**
+     * Ošetří chybu při zápisu do žurnálu. (Volá se ve vlákně žurnálu.)
+     * Soubor žurnálu se zavře a všechny další záznamy se zahazují až do založení nového žurnálu,
+     * aby chyba neomezila samotnou editaci.
+     * @param ex chyba
+     */
+    private void fail(Exception ex){
+        LOGGER.log(Level.SEVERE, "Žurnál neuložených změn byl vypnut. ("+ex.getMessage()+")", ex);
+        if(channel != null){
+            try {
+                channel.close();
+            } catch (IOException ex1) {
+                LOGGER.log(Level.SEVERE, ex1.getMessage(), ex1);
+            }
+            channel = null;
+        }
+    }
+
+    /**
+     * Vytvoří hlavičku žurnálu.
+     * @param baseFile soubor, ze kterého dokument vychází (může být null)
+     * @return hlavička
+     * @throws IOException Pokud nastala chyba při zápisu.
+     */
+    private byte[] createHeader(File baseFile) throws IOException{
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(header);
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeBoolean(baseFile != null);
+        if(baseFile != null){
+            output.writeUTF(baseFile.getAbsolutePath());
+            output.writeLong(baseFile.length());
+            output.writeLong(baseFile.lastModified());
+        }
+        output.flush();
+        return header.toByteArray();
+    }
+
+    /**
+     * Přečte hlavičku žurnálu a zkontroluje, zda se soubor, ze kterého dokument vychází, mezitím nezměnil.
+     * @param input vstup žurnálu
+     * @return soubor, ze kterého dokument vychází (null pro nový dokument)
+     * @throws IOException Pokud hlavička není platná nebo se soubor změnil.
+     */
+    private File readHeader(DataInputStream input) throws IOException{
+        if(input.readInt() != MAGIC || input.readInt() != VERSION){
+            throw new IOException("Soubor "+journalFile.getPath()+" není žurnál neuložených změn.");
+        }
+        if(!input.readBoolean()){
+            return null;
+        }
+        File baseFile = new File(input.readUTF());
+        long length = input.readLong();
+        long lastModified = input.readLong();
+        if(!baseFile.isFile() || baseFile.length() != length || baseFile.lastModified() != lastModified){
+            throw new IOException("Soubor "+baseFile.getPath()+" byl od posledního spuštění změněn nebo odstraněn.");
+        }
+        return baseFile;
+    }
+
+    /**
+     * Zapíše do dávky úseky textu se stejnými atributy v dané části dokumentu.
+     * @param offset začátek části dokumentu
+     * @param length délka části dokumentu
+     * @param withText zda se má zapsat i samotný text a obrázky
+     * @throws IOException Pokud nastala chyba při zápisu.
+     * @throws BadLocationException Pokud daná část v dokumentu neexistuje.
+     */
+    private void writeRuns(int offset, int length, boolean withText) throws IOException, BadLocationException{
+        List<Element> runs = new ArrayList<>();
+        int end = offset + length;
+        int pos = offset;
+        while(pos < end){
+            Element run = document.getCharacterElement(pos);
+            runs.add(run);
+            pos = run.getEndOffset();
+        }
+        batchOutput.writeInt(runs.size());
+        for(Element run : runs){
+            int start = Math.max(run.getStartOffset(), offset);
+            int runLength = Math.min(run.getEndOffset(), end) - start;
+            AttributeSet attrs = run.getAttributes();
+            batchOutput.writeInt(start - offset);
+            batchOutput.writeInt(runLength);
+            batchOutput.writeUTF(StyleConstants.getFontFamily(attrs));
+            batchOutput.writeInt(StyleConstants.getFontSize(attrs));
+            batchOutput.writeBoolean(StyleConstants.isBold(attrs));
+            Icon icon = StyleConstants.getIcon(attrs);
+            batchOutput.writeBoolean(icon != null);
+            if(icon != null){
+                batchOutput.writeInt(ImageAttributes.getWidth(attrs));
+                batchOutput.writeInt(ImageAttributes.getHeight(attrs));
+            }
+            if(withText){
+                writeBytes(document.getText(start, runLength).getBytes(StandardCharsets.UTF_8));
+                if(icon != null){
+                    //zakódovaný obrázek se na toto místo vloží až ve vlákně žurnálu
+                    pendingIcons.add(new PendingIcon(batch.size(), icon));
+                }
+            }
+        }
+    }
+
+    /**
+     * Zapíše do dávky zarovnání všech odstavců, které zasahují do dané části dokumentu.
+     * @param offset začátek části dokumentu
+     * @param length délka části dokumentu
+     * @throws IOException Pokud nastala chyba při zápisu.
+     */
+    private void writeParagraphs(int offset, int length) throws IOException{
+        List<Element> paragraphs = new ArrayList<>();
+        int end = offset + length;
+        int pos = offset;
+        do{
+            Element paragraph = document.getParagraphElement(pos);
+            paragraphs.add(paragraph);
+            pos = paragraph.getEndOffset();
+        }while(pos < end);
+        batchOutput.writeInt(paragraphs.size());
+        for(Element paragraph : paragraphs){
+            batchOutput.writeInt(paragraph.getStartOffset());
+            batchOutput.writeInt(StyleConstants.getAlignment(paragraph.getAttributes()));
+        }
+    }
+
+    /**
+     * Zapíše do dávky pole bajtů i s jeho délkou.
+     * @param bytes pole bajtů
+     * @throws IOException Pokud nastala chyba při zápisu.
+     */
+    private void writeBytes(byte[] bytes) throws IOException{
+        batchOutput.writeInt(bytes.length);
+        batchOutput.write(bytes);
+    }
+
+    /**
+     * Přečte pole bajtů zapsané metodou {@link #writeBytes(byte[])}.
+     * @param input vstup žurnálu
+     * @return pole bajtů
+     * @throws IOException Pokud nastala chyba při čtení.
+     */
+    private static byte[] readBytes(DataInputStream input) throws IOException{
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Přečte jeden záznam žurnálu.
+     * @param type typ záznamu
+     * @param input vstup žurnálu
+     * @return záznam
+     * @throws IOException Pokud nastala chyba při čtení nebo je záznam neúplný (EOFException).
+     */
+    private static Record readRecord(byte type, DataInputStream input) throws IOException{
+        switch(type){
+            case RECORD_INSERT:
+                return new Record(type, input.readInt(), 0, readRuns(input, true), readParagraphs(input));
+            case RECORD_REMOVE:
+                return new Record(type, input.readInt(), input.readInt(), null, null);
+            case RECORD_FORMAT:
+                return new Record(type, input.readInt(), input.readInt(), readRuns(input, false), readParagraphs(input));
+            default:
+                throw new IOException("Neznámý typ záznamu žurnálu: "+type);
+        }
+    }
+
+    /**
+     * Přečte úseky textu zapsané metodou {@link #writeRuns(int, int, boolean)}.
+     * @param input vstup žurnálu
+     * @param withText zda jsou zapsány i samotný text a obrázky
+     * @return úseky textu
+     * @throws IOException Pokud nastala chyba při čtení.
+     */
+    private static List<Run> readRuns(DataInputStream input, boolean withText) throws IOException{
+        int count = input.readInt();
+        List<Run> runs = new ArrayList<>(count);
+        for(int i = 0; i < count; i++){
+            Run run = new Run();
+            run.offset = input.readInt();
+            run.length = input.readInt();
+            StyleConstants.setFontFamily(run.attrs, input.readUTF());
+            StyleConstants.setFontSize(run.attrs, input.readInt());
+            StyleConstants.setBold(run.attrs, input.readBoolean());
+            run.icon = input.readBoolean();
+            if(run.icon){
+                ImageAttributes.setSize(run.attrs, input.readInt(), input.readInt());
+            }
+            if(withText){
+                run.text = new String(readBytes(input), StandardCharsets.UTF_8);
+                if(run.icon){
+                    StyleConstants.setIcon(run.attrs, StoredImageIcon.read(readBytes(input)));
+                }
+            }
+            runs.add(run);
+        }
+        return runs;
+    }
+
+    /**
+     * Přečte zarovnání odstavců zapsané metodou {@link #writeParagraphs(int, int)}.
+     * @param input vstup žurnálu
+     * @return dvojice (začátek odstavce, zarovnání)
+     * @throws IOException Pokud nastala chyba při čtení.
+     */
+    private static int[] readParagraphs(DataInputStream input) throws IOException{
+        int count = input.readInt();
+        int[] paragraphs = new int[count*2];
+        for(int i = 0; i < paragraphs.length; i++){
+            paragraphs[i] = input.readInt();
+        }
+        return paragraphs;
+    }
+
+    /**
+     * Pokusí se uzamknout soubor zámku žurnálu. Zámek drží operační systém, takže se uvolní i při pádu aplikace.
+     * @param lockFile soubor zámku
+     * @return zámek (null, pokud soubor používá jiná běžící instance editoru nebo ho nelze uzamknout)
+     */
+    private static FileLock tryLock(File lockFile){
+        FileChannel lockChannel = null;
+        try {
+            lockChannel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock lock = lockChannel.tryLock();
+            if(lock != null){
+                return lock;
+            }
+        } catch (OverlappingFileLockException ex) {
+            //soubor už má uzamčený tato instance editoru
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Soubor "+lockFile.getPath()+" nelze uzamknout. ("+ex.getMessage()+")");
+        }
+        if(lockChannel != null){
+            try {
+                lockChannel.close();
+            } catch (IOException ex) {
+                LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Přejmenuje soubor na cílový soubor (pokud to jde, tak atomicky).
+     * @param source přejmenovávaný soubor
+     * @param target cílový soubor
+     * @throws IOException Pokud soubor nelze přejmenovat.
+     */
+    private static void moveAtomically(File source, File target) throws IOException{
+        try{
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }catch (AtomicMoveNotSupportedException ex){
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /************************************************************************************************
+    Deklarace soukromých tříd.
+    ************************************************************************************************/
+
+    /**
+     * Přepravka pro úsek textu se stejnými atributy.
+     */
+    private static class Run {
+        int offset;
+        int length;
+        String text;
+        boolean icon;
+        final MutableAttributeSet attrs = new SimpleAttributeSet();
+    }
+
+    /**
+     * Obrázek, který se má zakódovat a zapsat na dané místo dávky.
+     */
+    private static class PendingIcon {
+        final int position;
+        final Icon icon;
+
+        PendingIcon(int position, Icon icon) {
+            this.position = position;
+            this.icon = icon;
+        }
+    }
+
+    /**
+     * Jeden přečtený záznam žurnálu.
+     */
+    private static class Record {
+        final byte type;
+        final int offset;
+        final int length;
+        final List<Run> runs;
+        final int[] paragraphs;
+
+        Record(byte type, int offset, int length, List<Run> runs, int[] paragraphs) {
+            this.type = type;
+            this.offset = offset;
+            this.length = length;
+            this.runs = runs;
+            this.paragraphs = paragraphs;
+        }
+
+        /**
+         * Provede zaznamenanou změnu v daném dokumentu.
+         * @param target dokument
+         * @throws BadLocationException Pokud záznam neodpovídá obsahu dokumentu.
+         */
+        void apply(MyDocument target) throws BadLocationException{
+            switch(type){
+                case RECORD_INSERT:
+                    for(Run run : runs){
+                        target.insertStringDirectly(offset+run.offset, run.text, run.attrs);
+                    }
+                    break;
+                case RECORD_REMOVE:
+                    target.removeDirectly(offset, length);
+                    return;
+                case RECORD_FORMAT:
+                    for(Run run : runs){
+                        if(!run.icon){
+                            target.setCharacterAttributes(offset+run.offset, run.length, run.attrs, false);
+                        }else{
+                            target.resizePicture(offset+run.offset, ImageAttributes.getWidth(run.attrs), ImageAttributes.getHeight(run.attrs));
+                        }
+                    }
+                    break;
+            }
+            for(int i = 0; i < paragraphs.length; i += 2){
+                MutableAttributeSet attrs = new SimpleAttributeSet();
+                StyleConstants.setAlignment(attrs, paragraphs[i+1]);
+                target.setParagraphAttributes(paragraphs[i], 1, attrs, false);
+            }
+        }
+    }
+}
@@ -6,19 +6,25 @@
 
 package model;
 
-import java.awt.image.BufferedImage;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.imageio.ImageIO;
 import javax.swing.text.BadLocationException;
 
 
@@ -30,6 +36,11 @@ class FileHandler{
     Deklarace proměnných a konstant.
     ************************************************************************************************/
     
+    /**
+     * Velikost bufferu pro zápis do souboru (v bytech).
+     */
+    private static final int WRITE_BUFFER_SIZE = 256 * 1024;
+    
     /**
      * Objekt představuje formát datumu "yyyy_MM_dd_HH_mm_ss".
      */
@@ -38,7 +49,7 @@ class FileHandler{
     /**
      * Soubor v kterém jsou uložena data na lokálním souborovém systému.
      */
-    private File localFile;
+    private volatile File localFile;
     
     /**
      * Model editovacího okna.
@@ -75,6 +86,21 @@ class FileHandler{
      */
     private Long lastModificationFunctionSetup = 0L;
     
+    /**
+     * Buffer, do kterého se převádí ukládaný dokument. (Používá se opakovaně pro všechna uložení.)
+     */
+    private final EncodingBuffer encodingBuffer = new EncodingBuffer(WRITE_BUFFER_SIZE);
+    
+    /**
+     * Složka s kopiemi dokumentu, které čekají na odeslání do sdíleného úložiště.
+     */
+    private static final File REMOTE_QUEUE_DIRECTORY = new File(System.getProperty("user.home"), ".typon_fronta_sdileneho_uloziste");
+    
+    /**
+     * Fronta kopií dokumentu, které čekají na odeslání do sdíleného úložiště (null, pokud není sdílené úložiště nastaveno).
+     */
+    private RemoteSaveQueue remoteQueue = null;
+    
     /**
      * Globální logger chyb
      */
@@ -103,33 +129,45 @@ class FileHandler{
      * @throws javax.swing.text.BadLocationException Pokud byla nastavena pozice, která v dokumentu neexistuje.
      */
     public void saveFile(File file, MyDocument document) throws FileNotFoundException, IOException, BadLocationException{
-        if(file==null){
-            file = localFile;
-        }
-        if(!file.toString().endsWith(".typon")){
-            file = new File(file.getPath()+".typon");
-        }
-        
-        //try (FileOutputStream fos = new FileOutputStream(file); OutputStreamWriter writer = new OutputStreamWriter(fos)) {
-        try(FileWriter writer = new FileWriter(file)){
-            editorKit.write(writer, document, 0, document.getLength());
-        }
-        localFile = file;
+        save(getTargetFile(file), null, document);
     }
 
     /**
-     * Uloží soubor do nastaveného sdíleného úložiště s názvem „RRRR_MM_DD_HH_MM_SS_přijmení_jméno“.
-     * @throws java.io.IOException Pokud nastala chyba při zapisování.
+     * Uloží obsah dokumentu do zvoleného souboru a zároveň do nastaveného sdíleného úložiště s názvem „RRRR_MM_DD_HH_MM_SS_přijmení_jméno“.
+     * Dokument se převede do formátu souboru pouze jednou. Kopie pro sdílené úložiště se uloží do lokální fronty,
+     * ze které se odešle na pozadí (a při nedostupnosti úložiště se odeslání opakuje).
+     * Chyba při uložení kopie do fronty se pouze zaloguje.
+     * @param file soubor, do kterého se má uložit obsah dokumentu (může být null)
+     * @param document dokument s obsahem
+     * @param userFirstName křestní jméno uživatele
+     * @param userSurename příjmení uživatele
+     * @throws java.io.IOException Pokud nastala chyba při zapisování do zvoleného souboru.
      * @throws java.io.FileNotFoundException if the file exists but is a directory
      *                   rather than a regular file, does not exist but cannot
      *                   be created, or cannot be opened for any other reason
      * @throws javax.swing.text.BadLocationException Pokud byla nastavena pozice, která v dokumentu neexistuje.
      */
-    public void saveRemoteFile(MyDocument document, String userFirstName, String userSurename) throws FileNotFoundException, IOException, BadLocationException{
-        if(remoteSavingDirectory!=null){
-            File file = new File(remoteSavingDirectory,dateFormat.format(new Date())+"_"+userSurename+"_"+userFirstName+".typon");
-            saveFile(file, document);
+    public void saveFileWithRemoteCopy(File file, MyDocument document, String userFirstName, String userSurename) throws FileNotFoundException, IOException, BadLocationException{
+        String remoteFileName = null;
+        if(remoteQueue!=null){
+            remoteFileName = dateFormat.format(new Date())+"_"+userSurename+"_"+userFirstName+".typon";
         }
+        save(getTargetFile(file), remoteFileName, document);
+    }
+    
+    /**
+     * Určí soubor, do kterého se skutečně uloží obsah dokumentu.
+     * @param file zvolený soubor (může být null, pak se použije soubor pro lokální uložení)
+     * @return soubor s koncovkou .typon
+     */
+    public File getTargetFile(File file){
+        if(file==null){
+            file = localFile;
+        }
+        if(!file.toString().endsWith(".typon")){
+            file = new File(file.getPath()+".typon");
+        }
+        return file;
     }
     
     /**
@@ -139,6 +177,13 @@ class FileHandler{
         return localFile;
     }
     
+    /**
+     * @param file soubor pro lokální uložení (např. soubor, ze kterého vychází obnovený dokument)
+     */
+    public void setLocalFile(File file){
+        localFile=file;
+    }
+    
     /**
      * Vymaže referenci na uložený soubor.
      */
@@ -150,11 +195,10 @@ class FileHandler{
      * Otevře obrázek.
      * @param file soubor, ze kterého se má obrázek načíst
      * @throws IOException Pokud nastala chyba při čtení.
-     * @return obrázek
+     * @return obrázek (i s jeho původní zakódovanou podobou)
      */
-    public BufferedImage openImage(File file) throws IOException{
-        BufferedImage img = ImageIO.read(file);
-        return img;
+    public StoredImageIcon openImage(File file) throws IOException{
+        return StoredImageIcon.read(Files.readAllBytes(file.toPath()));
     }
     
     /**
@@ -166,22 +210,32 @@ class FileHandler{
     }
     
     /**
-     * Otevře v editoru obsah RTF souboru.
-     * @param file soubor s RTF obsahem
+     * Otevře v editoru obsah souboru .typon (i staršího souboru ve formátu RTF).
+     * @param file soubor
      * @param document dokument editovacího okna
      * @throws IOException pokud nastane chyba při čtení ze souboru
      * @throws FileNotFoundException pokud daný soubor nebyl nalezen
      */
     public void readFile(File file, MyDocument document) throws FileNotFoundException, IOException{
-        //try(FileInputStream fis = new FileInputStream(file);InputStreamReader reader = new InputStreamReader(fis)){
-        try(FileReader reader = new FileReader(file)){
-            editorKit.read(reader, document, 0);
+        try(InputStream input = new FileInputStream(file)){
+            editorKit.read(input, document, 0);
         }catch(BadLocationException ex){
             //nemůže nastat, protože jsme zadali pozici v dokumentu natvrdo na 0
             LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
         }
     }
     
+    /**
+     * Přidá listener stavu fronty kopií, které čekají na odeslání do sdíleného úložiště.
+     * (Pokud není sdílené úložiště nastaveno, tak se nic nestane.)
+     * @param listener listener stavu fronty
+     */
+    public void addRemoteQueueListener(RemoteQueueListener listener){
+        if(remoteQueue!=null){
+            remoteQueue.addListener(listener);
+        }
+    }
+    
     /**
      * @return zda existuje soubor s nastavením vzdáleného uložiště 
      */
@@ -201,8 +255,8 @@ class FileHandler{
      * @return nastavení funkcí (může být null)
      */
     public FunctionSetup readGlobalFunctionsSetup(){
-        lastModificationFunctionSetup = remoteFunctionsSetup.lastModified();
         if(remoteFunctionsSetup!=null){
+            lastModificationFunctionSetup = remoteFunctionsSetup.lastModified();
             try (FileReader reader = new FileReader(remoteFunctionsSetup); BufferedReader br = new BufferedReader(reader)) {
                 return new FunctionSetup(readOneFunction(br), readOneFunction(br), readOneFunction(br), readOneFunction(br), readOneFunction(br), readOneFunction(br), readOneFunction(br));
             } catch (IOException ex) {
@@ -220,6 +274,13 @@ class FileHandler{
         return remoteFunctionsSetup!=null && lastModificationFunctionSetup != remoteFunctionsSetup.lastModified();
     }
     
+    /**
+     * @return soubor s globálním nastavením funkcí (null, pokud není nastaven)
+     */
+    File getRemoteFunctionsSetup(){
+        return remoteFunctionsSetup;
+    }
+    
     /************************************************************************************************
     Deklarace soukromých metod.
     ************************************************************************************************/
@@ -236,22 +297,107 @@ class FileHandler{
      */
     private File readLocalConfigurationFile(String nameFileConfig) throws FileNotFoundException, IOException{
         //Složka ve sdíleném uložišti.
-        File remoteDirectory;
+        File remoteDirectory = readConfiguredPath(nameFileConfig);
+        
+        if(!remoteDirectory.exists()){
+            throw new FileNotFoundException("Cesta v souboru "+nameFileConfig+" není platná. Je potřeba spustit administrační nástroj a nastavit správně obsah konfiguračního souboru.");
+        }
         
+        return remoteDirectory;
+    }
+    
+    /**
+     * Přečte první řádek (cestu v souborovém systému) z daného lokálního konfiguračního souboru.
+     * @param nameFileConfig název lokálního konfiguračního souboru
+     * @return cesta z konfiguračního souboru (nemusí existovat)
+     * @throws IOException Pokud nastala chyba při čtení. Nebo když je konfigurační soubor prázdný.
+     */
+    private File readConfiguredPath(String nameFileConfig) throws IOException{
         File file = new File(nameFileConfig);
         try (FileReader reader = new FileReader(file); BufferedReader br = new BufferedReader(reader)) {
             String path2 = br.readLine();
             if(path2 == null){
                 throw new IOException("Konfigurační soubor "+nameFileConfig+" je prázdný. Je potřeba spustit administrační nástroj a nastavit správně obsah konfiguračního souboru.");
             }
-            remoteDirectory = new File(path2);
+            return new File(path2);
         }
+    }
+    
+    /**
+     * Převede dokument do formátu souboru (do sdíleného bufferu) a zapíše ho do lokálního souboru 
+     * a případně i do fronty pro odeslání do sdíleného úložiště.
+     * @param file lokální soubor
+     * @param remoteFileName název souboru ve sdíleném úložišti (může být null)
+     * @param document dokument s obsahem
+     * @throws IOException Pokud nastala chyba při zapisování do lokálního souboru.
+     * @throws BadLocationException Pokud byla nastavena pozice, která v dokumentu neexistuje.
+     */
+    private synchronized void save(File file, String remoteFileName, MyDocument document) throws IOException, BadLocationException{
+        encodingBuffer.reset();
+        DocumentContainer.write(document, encodingBuffer);
         
-        if(!remoteDirectory.exists()){
-            throw new FileNotFoundException("Cesta v souboru "+nameFileConfig+" není platná. Je potřeba spustit administrační nástroj a nastavit správně obsah konfiguračního souboru.");
+        if(remoteFileName != null){
+            try {
+                remoteQueue.enqueue(encodingBuffer.getContent(), remoteFileName);
+            } catch (IOException ex) {
+                LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
+            }
         }
         
-        return remoteDirectory;
+        writeAtomically(encodingBuffer.getContent(), file);
+        localFile = file;
+    }
+    
+    /**
+     * Zapíše obsah do souboru.
+     * Obsah se nejdříve zapíše do dočasného souboru vedle cílového souboru, 
+     * který se po zápisu na disk přejmenuje na cílový soubor. 
+     * Přerušené ukládání tak nikdy nepoškodí původní soubor.
+     * @param content obsah souboru
+     * @param file cílový soubor
+     * @throws IOException Pokud nastala chyba při zapisování.
+     */
+    static void writeAtomically(ByteBuffer content, File file) throws IOException{
+        long start = System.nanoTime();
+        File tempFile = File.createTempFile(".typon", ".tmp", file.getAbsoluteFile().getParentFile());
+        try{
+            try(FileOutputStream fos = new FileOutputStream(tempFile); FileChannel channel = fos.getChannel()){
+                while(content.hasRemaining()){
+                    channel.write(content);
+                }
+                channel.force(true);
+            }
+            moveAtomically(tempFile, file);
+        }finally{
+            //pokud se nepodařilo soubor přejmenovat, tak po sobě uklidit
+            Files.deleteIfExists(tempFile.toPath());
+        }
+        logSaveThroughput(file, content.limit(), System.nanoTime()-start);
+    }
+    
+    /**
+     * Přejmenuje soubor na cílový soubor jako jednu atomickou operaci (pokud to souborový systém umožňuje).
+     * @param source přejmenovávaný soubor
+     * @param target cílový soubor (pokud existuje, tak bude nahrazen)
+     * @throws IOException pokud se přejmenování nezdařilo
+     */
+    private static void moveAtomically(File source, File target) throws IOException{
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+    
+    /**
+     * Zaloguje počet zapsaných bytů, dobu a propustnost ukládání.
+     * @param file uložený soubor
+     * @param bytes počet zapsaných bytů
+     * @param nanos doba ukládání v nanosekundách
+     */
+    private static void logSaveThroughput(File file, long bytes, long nanos){
+        long millis = Math.max(1, nanos/1000000);
+        LOGGER.log(Level.INFO, String.format("Soubor %s uložen: %d B za %d ms (%.1f kB/s).", file.getPath(), bytes, millis, bytes/1.024/millis));
     }
     
     /**
@@ -259,7 +405,12 @@ class FileHandler{
      */
     private void readLocalConfigurationFiles(){
         try {
-            remoteSavingDirectory = readLocalConfigurationFile(fileRemoteSaveConfigurationName);
+            remoteSavingDirectory = readConfiguredPath(fileRemoteSaveConfigurationName);
+            if(!remoteSavingDirectory.exists()){
+                //úložiště může být jen dočasně nedostupné, kopie počkají ve frontě
+                LOGGER.log(Level.WARNING, "Cesta v souboru "+fileRemoteSaveConfigurationName+" ("+remoteSavingDirectory+") není momentálně dostupná. Kopie dokumentu se odešlou, až bude dostupná. Pokud je cesta neplatná, je potřeba spustit administrační nástroj a nastavit správně obsah konfiguračního souboru.");
+            }
+            remoteQueue = new RemoteSaveQueue(REMOTE_QUEUE_DIRECTORY, remoteSavingDirectory);
         } catch (IOException ex) {
             LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
         }
@@ -296,6 +447,25 @@ class FileHandler{
         throw new IOException("Soubor "+remoteFunctionsSetup+" není validní.");
     }
     
+    /************************************************************************************************
+    Deklarace soukromých tříd.
+    ************************************************************************************************/
     
+    /**
+     * Třída představuje opakovaně použitelný buffer, 
+     * jehož obsah lze číst z více vláken zároveň bez kopírování.
+     */
+    private static class EncodingBuffer extends ByteArrayOutputStream{
+        
+        EncodingBuffer(int size) {
+            super(size);
+        }
+        
+        /**
+         * @return obsah bufferu jen pro čtení (každé volání vrací nezávislou pozici čtení)
+         */
+        synchronized ByteBuffer getContent(){
+            return ByteBuffer.wrap(buf, 0, count).asReadOnlyBuffer();
+        }
+    }
 }
-
@@ -0,0 +1,21 @@
+//==============================================================================
+// Copyright Jan Brzobohatý 2015.
+// Distributed under the MIT License.
+// (See accompanying file LICENSE or copy at http://opensource.org/licenses/MIT)
+//==============================================================================
+
+package model;
+
+/**
+ * Listener změn globálního nastavení funkcí editoru.
+ * Všechny metody jsou volány ve vlákně pro obsluhu událostí (EDT).
+ * @author Jan Brzobohatý
+ */
+public interface FunctionSetupListener {
+
+    /**
+     * Globální nastavení funkcí bylo načteno nebo změněno.
+     * @param setup nové nastavení funkcí
+     */
+    public void functionSetupChanged(FunctionSetup setup);
+}
@@ -0,0 +1,223 @@
+//==============================================================================
+// Copyright Jan Brzobohatý 2015.
+// Distributed under the MIT License.
+// (See accompanying file LICENSE or copy at http://opensource.org/licenses/MIT)
+//==============================================================================
+
+package model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.SwingUtilities;
+
+/**
+ * Třída hlídá soubor s globálním nastavením funkcí na sdíleném úložišti a při jeho změně načte nové nastavení.
+ * Pokud to souborový systém umožňuje, tak se o změnách souboru dozvídá od operačního systému (WatchService)
+ * a soubor jen občas pro jistotu zkontroluje (změny na síťových discích nemusí systém vždy oznámit).
+ * Jinak soubor kontroluje s odstupem, který se prodlužuje, dokud se soubor nemění.
+ * V celé aplikaci je jen jeden hlídač. (Singleton)
+ * @author Jan Brzobohatý
+ */
+class FunctionSetupWatcher {
+    /************************************************************************************************
+    Deklarace statickcých proměnných.
+    ************************************************************************************************/
+
+    /**
+     * Instance této třídy. (Singleton)
+     */
+    private static FunctionSetupWatcher functionSetupWatcher;
+
+    /************************************************************************************************
+    Deklarace proměnných a konstant.
+    ************************************************************************************************/
+
+    /**
+     * Nejkratší odstup kontroly souboru (v ms).
+     */
+    private static final long MIN_POLL_INTERVAL = 2000;
+
+    /**
+     * Nejdelší odstup kontroly souboru (v ms). Zároveň odstup kontroly pro jistotu při použití WatchService.
+     */
+    private static final long MAX_POLL_INTERVAL = 60000;
+
+    /**
+     * Doba (v ms), po kterou se po oznámení změny čeká, než se soubor přečte (aby se nečetl rozepsaný soubor).
+     */
+    private static final long SETTLE_DELAY = 300;
+
+    /**
+     * Stará se o čtení souboru s nastavením funkcí.
+     */
+    private FileHandler fileHandler;
+
+    /**
+     * Listener změn nastavení funkcí.
+     */
+    private volatile FunctionSetupListener listener;
+
+    /**
+     * Vlákno hlídače (null, dokud hlídač neběží).
+     */
+    private Thread thread;
+
+    /**
+     * Globální logger chyb
+     */
+    private final static Logger LOGGER = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+
+    /************************************************************************************************
+    Deklarace konstruktorů a továrních metod.
+    ************************************************************************************************/
+
+    private FunctionSetupWatcher(){}
+
+    /**
+     * Tovární metoda. (Singleton)
+     * @return instance třídy FunctionSetupWatcher
+     */
+    static synchronized FunctionSetupWatcher getFunctionSetupWatcher(){
+        if(functionSetupWatcher == null){
+            functionSetupWatcher = new FunctionSetupWatcher();
+        }
+        return functionSetupWatcher;
+    }
+
+    /************************************************************************************************
+    Deklarace veřejných metod.
+    ************************************************************************************************/
+
+    /**
+     * Začne hlídat soubor s globálním nastavením funkcí (hned na začátku nastavení načte).
+     * Pokud už hlídač běží, tak se pouze vymění listener.
+     * @param fileHandler stará se o čtení souboru s nastavením funkcí
+     * @param listener listener změn nastavení funkcí
+     */
+    synchronized void start(FileHandler fileHandler, FunctionSetupListener listener){
+        this.listener = listener;
+        if(thread != null){
+            return;
+        }
+        this.fileHandler = fileHandler;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watch();
+            }
+        }, "Typon-hlidani-nastaveni-funkci");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /************************************************************************************************
+    Deklarace soukromých metod.
+    ************************************************************************************************/
+
+    /**
+     * Hlídá soubor s nastavením funkcí. (Běží ve vlákně hlídače.)
+     */
+    private void watch(){
+        checkForChanges();
+        File file = fileHandler.getRemoteFunctionsSetup();
+        if(file == null){
+            return;
+        }
+        try {
+            Path directory = file.getAbsoluteFile().getParentFile().toPath();
+            try(WatchService watchService = directory.getFileSystem().newWatchService()){
+                directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+                LOGGER.log(Level.INFO, "Změny nastavení funkcí se hlídají pomocí WatchService.");
+                watchEvents(watchService, file.getName());
+            }
+        } catch (IOException | UnsupportedOperationException | ClosedWatchServiceException ex) {
+            LOGGER.log(Level.INFO, "Souborový systém neumožňuje hlídat změny nastavení funkcí ("+ex.getMessage()+"), soubor se bude kontrolovat periodicky.");
+            poll();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Čeká na události od operačního systému a při změně souboru načte nové nastavení.
+     * Pokud žádná událost nepřijde, tak soubor pro jistotu jednou za čas zkontroluje.
+     * @param watchService služba pro hlídání změn
+     * @param fileName název souboru s nastavením funkcí
+     * @throws InterruptedException Pokud bylo vlákno přerušeno.
+     */
+    private void watchEvents(WatchService watchService, String fileName) throws InterruptedException{
+        while(true){
+            WatchKey key = watchService.poll(MAX_POLL_INTERVAL, TimeUnit.MILLISECONDS);
+            if(key == null){
+                checkForChanges();
+                continue;
+            }
+            boolean changed = false;
+            for(WatchEvent<?> event : key.pollEvents()){
+                if(event.kind() == StandardWatchEventKinds.OVERFLOW || fileName.equals(String.valueOf(event.context()))){
+                    changed = true;
+                }
+            }
+            if(changed){
+                Thread.sleep(SETTLE_DELAY);
+                checkForChanges();
+            }
+            if(!key.reset()){
+                //složka přestala být dostupná, dál už lze jen kontrolovat periodicky
+                LOGGER.log(Level.WARNING, "Složka s nastavením funkcí přestala být dostupná, soubor se bude kontrolovat periodicky.");
+                poll();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Periodicky kontroluje soubor. Dokud se soubor nemění, tak se odstup kontrol prodlužuje.
+     */
+    private void poll(){
+        long interval = MIN_POLL_INTERVAL;
+        while(!Thread.currentThread().isInterrupted()){
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if(checkForChanges()){
+                interval = MIN_POLL_INTERVAL;
+            }else{
+                interval = Math.min(interval*2, MAX_POLL_INTERVAL);
+            }
+        }
+    }
+
+    /**
+     * Zkontroluje, zda se soubor změnil, a pokud ano, tak načte nové nastavení a předá ho (v EDT) listeneru.
+     * @return zda se soubor změnil
+     */
+    private boolean checkForChanges(){
+        if(!fileHandler.wasRemoteFunctionSetupModified()){
+            return false;
+        }
+        final FunctionSetup setup = fileHandler.readGlobalFunctionsSetup();
+        if(setup != null){
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    listener.functionSetupChanged(setup);
+                }
+            });
+        }
+        return true;
+    }
+}
@@ -0,0 +1,91 @@
+//==============================================================================
+// Copyright Jan Brzobohatý 2015.
+// Distributed under the MIT License.
+// (See accompanying file LICENSE or copy at http://opensource.org/licenses/MIT)
+//==============================================================================
+
+package model;
+
+import javax.swing.text.AttributeSet;
+import javax.swing.text.MutableAttributeSet;
+
+/**
+ * Třída obsahuje atributy obrázku v dokumentu, které nejsou ve StyleConstants (rozměry, na které byl obrázek zvětšen či zmenšen).
+ * Obrázek v dokumentu je vždy původní (sdílený), rozměry se uplatní až při jeho zobrazení.
+ * @author Jan Brzobohatý
+ */
+public class ImageAttributes {
+    /************************************************************************************************
+    Deklarace proměnných a konstant.
+    ************************************************************************************************/
+
+    /**
+     * Šířka a výška, na kterou byl obrázek zvětšen či zmenšen.
+     */
+    public static final Object WIDTH = new ImageAttribute("imageWidth");
+    public static final Object HEIGHT = new ImageAttribute("imageHeight");
+
+    /************************************************************************************************
+    Deklarace konstruktorů a továrních metod.
+    ************************************************************************************************/
+
+    private ImageAttributes(){}
+
+    /************************************************************************************************
+    Deklarace statických metod.
+    ************************************************************************************************/
+
+    /**
+     * @param attrs atributy
+     * @return šířka, na kterou byl obrázek zvětšen či zmenšen (0, pokud nebyl)
+     */
+    public static int getWidth(AttributeSet attrs){
+        Object width = attrs.getAttribute(WIDTH);
+        return width instanceof Integer ? (Integer) width : 0;
+    }
+
+    /**
+     * @param attrs atributy
+     * @return výška, na kterou byl obrázek zvětšen či zmenšen (0, pokud nebyl)
+     */
+    public static int getHeight(AttributeSet attrs){
+        Object height = attrs.getAttribute(HEIGHT);
+        return height instanceof Integer ? (Integer) height : 0;
+    }
+
+    /**
+     * Nastaví rozměry, na které byl obrázek zvětšen či zmenšen. 
+     * @param attrs atributy
+     * @param width šířka (0 pro původní rozměry obrázku)
+     * @param height výška (0 pro původní rozměry obrázku)
+     */
+    public static void setSize(MutableAttributeSet attrs, int width, int height){
+        if(width <= 0 || height <= 0){
+            attrs.removeAttribute(WIDTH);
+            attrs.removeAttribute(HEIGHT);
+            return;
+        }
+        attrs.addAttribute(WIDTH, width);
+        attrs.addAttribute(HEIGHT, height);
+    }
+
+    /************************************************************************************************
+    Deklarace soukromých tříd.
+    ************************************************************************************************/
+
+    /**
+     * Klíč atributu obrázku.
+     */
+    private static class ImageAttribute {
+        private final String name;
+
+        ImageAttribute(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
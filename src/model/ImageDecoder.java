@@ -0,0 +1,326 @@
+//==============================================================================
+// Copyright Jan Brzobohatý 2015.
+// Distributed under the MIT License.
+// (See accompanying file LICENSE or copy at http://opensource.org/licenses/MIT)
+//==============================================================================
+
+package model;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.SwingUtilities;
+
+/**
+ * Třída se stará o dekódování obrázků z dokumentu na pozadí.
+ * O dekódování žádají až view obrázků, když se poprvé vykreslují (tj. když se obrázek dostane do viditelné části editoru).
+ * Nezávislé obrázky se dekódují souběžně ve skupině vláken (jedno vlákno na každé jádro procesoru).
+ * Dekódované obrázky se do dokumentu dosazují ve vlákně pro obsluhu událostí (EDT). Obrázky, o které se požádalo
+ * během zpracování jedné události (např. jednoho vykreslení viditelné části editoru), tvoří okno, ve kterém se dosazují
+ * v pořadí, v jakém bylo o jejich dekódování požádáno (tj. v pořadí v dokumentu). Různá okna na sebe nečekají
+ * a obrázky z novějšího okna se dekódují přednostně, takže obrázek, na který uživatel právě přeskočil,
+ * nečeká na obrázky z dříve zobrazených míst dokumentu.
+ * @author Jan Brzobohatý
+ */
+class ImageDecoder {
+    /************************************************************************************************
+    Deklarace statickcých proměnných.
+    ************************************************************************************************/
+
+    /**
+     * Instance této třídy. (Singleton)
+     */
+    private static ImageDecoder imageDecoder;
+
+    /************************************************************************************************
+    Deklarace proměnných a konstant.
+    ************************************************************************************************/
+
+    /**
+     * Skupina vláken pro dekódování.
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Okna požadavků na dekódování. V každém okně jsou požadavky v pořadí, v jakém se mají dosadit do dokumentu.
+     */
+    private final List<ArrayDeque<Job>> windows = new ArrayList<>();
+
+    /**
+     * Okno, do kterého se přidávají požadavky během zpracování současné události v EDT (null, pokud žádné není otevřené).
+     */
+    private ArrayDeque<Job> openWindow;
+
+    /**
+     * Pořadové číslo posledního okna a posledního požadavku (určují přednost při dekódování).
+     */
+    private long windowNumber;
+    private long jobNumber;
+
+    /**
+     * Požadavky na dekódování podle obrázků (aby se žádný obrázek nedekódoval dvakrát).
+     */
+    private final Map<StoredImageIcon, Job> jobsByIcon = new IdentityHashMap<>();
+
+    /**
+     * Metriky: počet dekódovaných obrázků, celková doba dekódování (v ns) a nejdelší fronta čekajících obrázků.
+     */
+    private final AtomicLong decodedCount = new AtomicLong();
+    private final AtomicLong decodeNanos = new AtomicLong();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+    /**
+     * Globální logger chyb
+     */
+    private final static Logger LOGGER = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+
+    /************************************************************************************************
+    Deklarace konstruktorů a továrních metod.
+    ************************************************************************************************/
+
+    private ImageDecoder(){
+        int threads = Runtime.getRuntime().availableProcessors();
+        executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger number = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Typon-dekodovani-obrazku-"+number.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.NORM_PRIORITY-1);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Tovární metoda. (Singleton)
+     * @return instance třídy ImageDecoder
+     */
+    static synchronized ImageDecoder getImageDecoder(){
+        if(imageDecoder == null){
+            imageDecoder = new ImageDecoder();
+        }
+        return imageDecoder;
+    }
+
+    /************************************************************************************************
+    Deklarace veřejných metod.
+    ************************************************************************************************/
+
+    /**
+     * Požádá o dekódování obrázku na pozadí.
+     * @param icon obrázek
+     * @param onDecoded akce, která se provede (v EDT) po dosazení dekódovaného obrázku (může být null)
+     */
+    synchronized void decode(final StoredImageIcon icon, Runnable onDecoded){
+        Job job = jobsByIcon.get(icon);
+        if(job == null){
+            if(icon.isDecoded()){
+                if(onDecoded != null){
+                    SwingUtilities.invokeLater(onDecoded);
+                }
+                return;
+            }
+            if(openWindow == null){
+                openWindow = new ArrayDeque<>();
+                windows.add(openWindow);
+                windowNumber++;
+                //okno se uzavře po zpracování současné události
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        closeWindow();
+                    }
+                });
+            }
+            job = new Job(icon);
+            final Job submitted = job;
+            job.future = new DecodeTask(windowNumber, ++jobNumber, new Callable<BufferedImage>() {
+                @Override
+                public BufferedImage call() throws Exception {
+                    long start = System.nanoTime();
+                    BufferedImage image = StoredImageIcon.decodeImage(icon.getEncoded());
+                    decodeNanos.addAndGet(System.nanoTime()-start);
+                    decodedCount.incrementAndGet();
+                    return image;
+                }
+            }){
+                @Override
+                protected void done() {
+                    SwingUtilities.invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            installDecoded(submitted);
+                        }
+                    });
+                }
+            };
+            job.window = openWindow;
+            openWindow.add(job);
+            jobsByIcon.put(icon, job);
+            executor.execute(job.future);
+            updateMaxQueueDepth();
+        }
+        if(onDecoded != null){
+            job.callbacks.add(onDecoded);
+        }
+    }
+
+    /**
+     * Zruší všechna čekající i probíhající dekódování. (Při zavření dokumentu.)
+     */
+    synchronized void cancelAll(){
+        for(ArrayDeque<Job> window : windows){
+            for(Job job : window){
+                job.future.cancel(true);
+            }
+        }
+        windows.clear();
+        openWindow = null;
+        jobsByIcon.clear();
+    }
+
+    /**
+     * @return počet obrázků, které čekají na dekódování
+     */
+    int getQueueDepth(){
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return počet dosud dekódovaných obrázků
+     */
+    long getDecodedCount(){
+        return decodedCount.get();
+    }
+
+    /**
+     * @return průměrná doba dekódování jednoho obrázku (v ms)
+     */
+    double getAverageDecodeMillis(){
+        long count = decodedCount.get();
+        return count == 0 ? 0 : decodeNanos.get()/1e6/count;
+    }
+
+    /************************************************************************************************
+    Deklarace soukromých metod.
+    ************************************************************************************************/
+
+    /**
+     * Uzavře okno požadavků na dekódování. Další požadavky už budou v novém okně.
+     */
+    private synchronized void closeWindow(){
+        if(openWindow != null && openWindow.isEmpty()){
+            windows.remove(openWindow);
+        }
+        openWindow = null;
+    }
+
+    /**
+     * Dosadí do obrázků všechny dokončené dekódované obrázky ze začátku okna, do kterého patří daný požadavek
+     * (aby se v rámci okna dosazovaly v pořadí v dokumentu), a provede akce, které na ně čekaly. (Volá se v EDT.)
+     * @param finished požadavek, jehož dekódování právě skončilo
+     */
+    private void installDecoded(Job finished){
+        List<Runnable> callbacks = new ArrayList<>();
+        boolean drained;
+        synchronized(this){
+            if(jobsByIcon.get(finished.icon) != finished){
+                //dekódování bylo zrušeno
+                return;
+            }
+            ArrayDeque<Job> window = finished.window;
+            while(!window.isEmpty() && window.peek().future.isDone()){
+                Job job = window.poll();
+                jobsByIcon.remove(job.icon);
+                try {
+                    job.icon.setDecoded(job.future.get());
+                    callbacks.addAll(job.callbacks);
+                } catch (InterruptedException | ExecutionException ex) {
+                    LOGGER.log(Level.SEVERE, "Obrázek nelze dekódovat. ("+ex.getMessage()+")", ex);
+                    job.icon.setUndecodable();
+                    callbacks.addAll(job.callbacks);
+                }
+            }
+            if(window.isEmpty() && window != openWindow){
+                windows.remove(window);
+            }
+            drained = windows.isEmpty();
+        }
+        for(Runnable callback : callbacks){
+            callback.run();
+        }
+        if(drained){
+            LOGGER.log(Level.INFO, String.format("Dekódováno obrázků: %d (průměrně %.1f ms na obrázek, nejdelší fronta: %d).",
+                    getDecodedCount(), getAverageDecodeMillis(), maxQueueDepth.getAndSet(0)));
+        }
+    }
+
+    /**
+     * Aktualizuje metriku nejdelší fronty čekajících obrázků.
+     */
+    private void updateMaxQueueDepth(){
+        int depth = getQueueDepth();
+        int max;
+        do{
+            max = maxQueueDepth.get();
+        }while(depth > max && !maxQueueDepth.compareAndSet(max, depth));
+    }
+
+    /************************************************************************************************
+    Deklarace soukromých tříd.
+    ************************************************************************************************/
+
+    /**
+     * Požadavek na dekódování jednoho obrázku.
+     */
+    private static class Job {
+        final StoredImageIcon icon;
+        final List<Runnable> callbacks = new ArrayList<>();
+        FutureTask<BufferedImage> future;
+        ArrayDeque<Job> window;
+
+        Job(StoredImageIcon icon) {
+            this.icon = icon;
+        }
+    }
+
+    /**
+     * Dekódování jednoho obrázku. Ve frontě skupiny vláken mají přednost požadavky z novějšího okna
+     * a v rámci okna požadavky v pořadí, v jakém o ně bylo požádáno.
+     */
+    private static class DecodeTask extends FutureTask<BufferedImage> implements Comparable<DecodeTask> {
+        final long window;
+        final long number;
+
+        DecodeTask(long window, long number, Callable<BufferedImage> callable) {
+            super(callable);
+            this.window = window;
+            this.number = number;
+        }
+
+        @Override
+        public int compareTo(DecodeTask other) {
+            if(window != other.window){
+                return window > other.window ? -1 : 1;
+            }
+            return Long.compare(number, other.number);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+//==============================================================================
+// Copyright Jan Brzobohatý 2015.
+// Distributed under the MIT License.
+// (See accompanying file LICENSE or copy at http://opensource.org/licenses/MIT)
+//==============================================================================
+
+package model;
+
+import javax.swing.text.Element;
+import javax.swing.text.MutableAttributeSet;
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+
+/**
+ * Třída představuje vratitelnou změnu velikosti obrázku v dokumentu.
+ * Pamatuje si pouze původní a nové rozměry, samotný (původní) obrázek zůstává v dokumentu beze změny.
+ * Změna se provádí v rámci události dokumentu, která drží zámek dokumentu pro zápis.
+ * @author Jan Brzobohatý
+ */
+class ImageResizeEdit extends AbstractUndoableEdit {
+    /************************************************************************************************
+    Deklarace proměnných a konstant.
+    ************************************************************************************************/
+
+    /**
+     * Element obrázku.
+     */
+    private final Element element;
+
+    /**
+     * Rozměry obrázku před změnou a po ní (0 pro původní rozměry obrázku).
+     */
+    private final int oldWidth;
+    private final int oldHeight;
+    private final int newWidth;
+    private final int newHeight;
+
+    /************************************************************************************************
+    Deklarace konstruktorů a továrních metod.
+    ************************************************************************************************/
+
+    /**
+     * @param element element obrázku
+     * @param newWidth nová šířka obrázku
+     * @param newHeight nová výška obrázku
+     */
+    ImageResizeEdit(Element element, int newWidth, int newHeight) {
+        this.element = element;
+        this.oldWidth = ImageAttributes.getWidth(element.getAttributes());
+        this.oldHeight = ImageAttributes.getHeight(element.getAttributes());
+        this.newWidth = newWidth;
+        this.newHeight = newHeight;
+    }
+
+    /************************************************************************************************
+    Deklarace veřejných metod.
+    ************************************************************************************************/
+
+    /**
+     * Nastaví obrázku nové rozměry.
+     */
+    void apply(){
+        ImageAttributes.setSize((MutableAttributeSet) element.getAttributes(), newWidth, newHeight);
+    }
+
+    @Override
+    public void undo() throws CannotUndoException {
+        super.undo();
+        ImageAttributes.setSize((MutableAttributeSet) element.getAttributes(), oldWidth, oldHeight);
+    }
+
+    @Override
+    public void redo() throws CannotRedoException {
+        super.redo();
+        apply();
+    }
+
+    @Override
+    public String getPresentationName() {
+        return "změna velikosti obrázku";
+    }
+}
@@ -8,20 +8,23 @@ package model;
 
 import java.awt.Color;
 import java.awt.Image;
-import java.awt.Toolkit;
 import java.awt.datatransfer.Clipboard;
 import java.awt.datatransfer.ClipboardOwner;
 import java.awt.datatransfer.DataFlavor;
 import java.awt.datatransfer.StringSelection;
 import java.awt.datatransfer.Transferable;
 import java.awt.datatransfer.UnsupportedFlavorException;
-import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.swing.Icon;
 import javax.swing.ImageIcon;
+import javax.swing.SwingUtilities;
 import javax.swing.event.DocumentListener;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.Caret;
@@ -29,7 +32,6 @@ import javax.swing.text.MutableAttributeSet;
 import javax.swing.text.SimpleAttributeSet;
 import javax.swing.text.StyleConstants;
 import javax.swing.text.ViewFactory;
-import view.EditorViewes.IconMyView;
 import view.MyTextPane;
 
 /**
@@ -75,6 +77,21 @@ public class Model implements ClipboardOwner{
      */
     private final FileHandler fileHandler = new FileHandler();
     
+    /**
+     * Stará se o ukládání dokumentu na pozadí.
+     */
+    private final DocumentSaver documentSaver = new DocumentSaver(fileHandler);
+    
+    /**
+     * Soubor žurnálu neuložených změn. (Další současně běžící instance editoru používají soubory s pořadovým číslem.)
+     */
+    private static final File JOURNAL_FILE = new File(System.getProperty("user.home"), ".typon_neulozene_zmeny");
+    
+    /**
+     * Žurnál neuložených změn pro obnovení dokumentu po pádu aplikace.
+     */
+    private EditJournal journal;
+    
     /**
      * Manager pro funkci Zpět.
      */
@@ -115,6 +132,17 @@ public class Model implements ClipboardOwner{
      */
     private final Clipboard localClipboard = LocalClipboard.getClipboard();
     
+    /**
+     * Zajišťuje přístup k systémové schránce (v samostatném vlákně).
+     */
+    private final ClipboardSynchronizer clipboardSynchronizer = new ClipboardSynchronizer();
+    
+    /**
+     * Zda je v systémové schránce obsah vložený tímto editorem.
+     * (Nastavuje se ve vlákně pro přístup ke schránce a v EDT.)
+     */
+    private volatile boolean clipboardOwner = false;
+    
     /**
      * Globální logger chyb
      */
@@ -149,8 +177,12 @@ public class Model implements ClipboardOwner{
         editorKit = new MyEditorKit(viewFactory);
         editor.setEditorKit(editorKit);
         document = (MyDocument)editor.getDocument();
+        //barvu textu v defaultním stylu dokumentu přebírá UI editoru z barvy popředí editoru
+        editor.setForeground(FOREGROUND);
         fileHandler.setEditorKit(editorKit);
         document.addUndoableEditListener(undoManager);
+        journal = EditJournal.lock(JOURNAL_FILE, document, true);
+        document.addDocumentListener(journal);
     }
     
     /**
@@ -181,6 +213,7 @@ public class Model implements ClipboardOwner{
      * Vymaže veškerý obsah dokumentu (editoru) a referenci na uložený soubor.
      */
     public void clearDocument(){
+        ImageDecoder.getImageDecoder().cancelAll();
         try {
             document.remove(0, document.getLength());
         } catch (BadLocationException ex) {
@@ -190,6 +223,7 @@ public class Model implements ClipboardOwner{
         hasChanged=false;
         fileHandler.clearLocalFile();
         undoManager.clearManager();
+        journal.reset(null);
 /*************************************************************************************************************************/
 //        try {
 //            openImage(new File("images.jpg"));
@@ -210,18 +244,126 @@ public class Model implements ClipboardOwner{
     public void saveLocalFile(File file) throws IOException, FileNotFoundException, BadLocationException{
         fileHandler.saveFile(file, document);
         hasChanged=false;
+        journal.reset(fileHandler.getLocalFile());
     }
     
     /**
-     * Uloží soubor do nastaveného sdíleného úložiště s názvem „RRRR_MM_DD_HH_MM_SS_přijmení_jméno“.
-     * @throws java.io.IOException Pokud nastala chyba při zapisování.
-     * @throws java.io.FileNotFoundException if the file exists but is a directory
-     *                   rather than a regular file, does not exist but cannot
-     *                   be created, or cannot be opened for any other reason
-     * @throws javax.swing.text.BadLocationException Pokud byla nastavena pozice, která v dokumentu neexistuje.
+     * Uloží obsah editoru na pozadí do zvoleného souboru a zároveň také na nastavené sdílené uložiště.
+     * Ukládá se kopie dokumentu z okamžiku zavolání této metody, takže uživatel může mezitím dál psát.
+     * @param file soubor, do kterého se má uložit obsah editoru (může být null, pokud existuje lokální soubor)
+     * @param listener listener průběhu ukládání
+     */
+    public void saveFileInBackground(File file, final SaveListener listener){
+        hasChanged=false;
+        documentSaver.requestSave(document, file, userFirstName, userSurename, new SaveListener() {
+            @Override
+            public void saveStarted() {
+                journal.markSave();
+                listener.saveStarted();
+            }
+
+            @Override
+            public void saveProgress(String description) {
+                listener.saveProgress(description);
+            }
+
+            @Override
+            public void saveFinished(Exception error) {
+                if(error != null){
+                    hasChanged=true;
+                    journal.discardSaveMark();
+                }else{
+                    journal.compactAfterSave(fileHandler.getLocalFile());
+                }
+                listener.saveFinished(error);
+            }
+        });
+    }
+    
+    /**
+     * @return zda právě probíhá ukládání na pozadí
+     */
+    public boolean isSaving(){
+        return documentSaver.isSaving();
+    }
+    
+    /**
+     * Nastaví listener stavu fronty kopií, které čekají na odeslání do sdíleného úložiště.
+     * @param listener listener stavu fronty
+     */
+    public void setRemoteQueueListener(RemoteQueueListener listener){
+        fileHandler.addRemoteQueueListener(listener);
+    }
+    
+    /**
+     * Počká na dokončení všech ukládání, která běží na pozadí.
+     */
+    public void waitForSaving(){
+        documentSaver.awaitIdle();
+    }
+    
+    /**
+     * Ukončí žurnál neuložených změn. (Volá se při řádném ukončení aplikace.)
+     */
+    public void closeJournal(){
+        journal.delete();
+    }
+    
+    /**
+     * @return zda zůstaly neuložené změny z minulého spuštění aplikace, které lze obnovit
+     */
+    public boolean hasUnsavedSession(){
+        return journal.hasRecords();
+    }
+    
+    /**
+     * @return soubor, ze kterého vycházel dokument s neuloženými změnami z minulého spuštění (null pro nový dokument)
+     * @throws IOException Pokud nastala chyba při čtení žurnálu.
      */
-    public void saveRemoteFile() throws IOException, FileNotFoundException, BadLocationException{
-        fileHandler.saveRemoteFile(document, userFirstName, userSurename);
+    public File getUnsavedSessionFile() throws IOException{
+        return journal.readBaseFile();
+    }
+    
+    /**
+     * Ponechá neuložené změny z minulého spuštění aplikace pro příští spuštění
+     * a změny v tomto spuštění bude zaznamenávat do jiného žurnálu.
+     */
+    public void postponeUnsavedSession(){
+        EditJournal postponed = journal;
+        journal = EditJournal.lock(JOURNAL_FILE, document, false);
+        document.removeDocumentListener(postponed);
+        document.addDocumentListener(journal);
+        postponed.release();
+    }
+    
+    /**
+     * Obnoví dokument z minulého spuštění aplikace. Načte soubor, ze kterého dokument vycházel, 
+     * a přehraje do něj všechny neuložené změny ze žurnálu. (Dokument musí být prázdný.)
+     * Vše probíhá v samostatném dokumentu, který se do editoru převezme najednou.
+     * @throws IOException Pokud nastala chyba při čtení souboru nebo žurnálu.
+     * @throws BadLocationException Pokud žurnál neodpovídá obsahu souboru.
+     */
+    public void recoverSession() throws IOException, BadLocationException{
+        long start = System.nanoTime();
+        File baseFile = journal.readBaseFile();
+        MyDocument recovered = new MyDocument();
+        MutableAttributeSet attrs = new SimpleAttributeSet();
+        StyleConstants.setFontSize(attrs, FONT_SIZE);
+        StyleConstants.setFontFamily(attrs, FONT_FAMILY);
+        StyleConstants.setBold(attrs, BOLD);
+        recovered.setCharacterAttributes(0, 1, attrs, false);
+        if(baseFile != null){
+            fileHandler.readFile(baseFile, recovered);
+        }
+        int records = journal.replay(recovered);
+        
+        document.copyContentFrom(recovered);
+        setUnsupportedAttributes();
+        undoManager.clearManager();
+        fileHandler.setLocalFile(baseFile);
+        hasChanged = true;
+        journal.resume();
+        LOGGER.log(Level.INFO, String.format("Obnoveno %d neuložených změn za %d ms.", records, (System.nanoTime()-start)/1000000));
     }
     
     /**
@@ -301,8 +443,7 @@ public class Model implements ClipboardOwner{
      * @throws IOException Pokud nastala chyba při čtení.
      */
     public void openImage(File file) throws IOException{
-        BufferedImage image = fileHandler.openImage(file);
-        editor.insertIcon(new ImageIcon(image));
+        editor.insertIcon(fileHandler.openImage(file));
     }
     
     /**
@@ -313,28 +454,41 @@ public class Model implements ClipboardOwner{
      */
     public void readFile(File file) throws FileNotFoundException, IOException{
         clearDocument();
+        journal.suspend();
         fileHandler.readFile(file, document);
-        setUnsupportedAttributes(null);
+        setUnsupportedAttributes();
         undoManager.clearManager();
         hasChanged = false;
+        journal.reset(file);
+    }
+    
+    /**
+     * Otevře v editoru soubor vybraný uživatelem. Pokud je do souboru možné zapisovat, tak se na něj dokument naváže
+     * (příští uložení ho přepíše), jinak se otevře jako kopie. Soubor se při otevření nepřepisuje,
+     * starší soubor ve formátu RTF se převede do nového formátu až při uložení.
+     * @param file soubor
+     * @throws IOException pokud nastane chyba při čtení ze souboru
+     * @throws FileNotFoundException pokud daný soubor nebyl nalezen
+     */
+    public void openLocalFile(File file) throws FileNotFoundException, IOException{
+        readFile(file);
+        if(Files.isWritable(file.toPath())){
+            fileHandler.setLocalFile(file);
+        }
     }
     
     /**
      * Vyjme označený obsah do schránky.
      */
     public void cut(){
-        editor.cut();
-        transferToLocalClipboard();
-        document.clipBoardWasChanged(true);
+        exportToLocalClipboard(true);
     }
     
     /**
      * Zkopíruje označený obsah do schránky.
      */
     public void copy(){
-        editor.copy();
-        transferToLocalClipboard();
-        document.clipBoardWasChanged(true);
+        exportToLocalClipboard(false);
     }
     
     /**
@@ -342,10 +496,13 @@ public class Model implements ClipboardOwner{
      * @throws BadLocationException Pokud bylo přistupováno k neexistujícímu indexu v dokumentu.
      */
     public void paste() throws BadLocationException{
-        if (localClipboard.getContents(null) != null){
+        Transferable transferable = localClipboard.getContents(null);
+        if (transferable != null){
             undoManager.isGroup(true);    
-                pasteCorectly();
-                setUnsupportedAttributes(null);
+                int start = editor.getSelectionStart();
+                pasteStringOrImage(transferable);
+                //normalizují se pouze vložené odstavce, ne celý dokument
+                setUnsupportedAttributes(start, editor.getCaretPosition());
 
                 //Pokud se nachází za vložením enter (a není to obrázek), tak změnit jeho atributy na atributy posledního znaku vložení
                 if(document.getText(editor.getCaretPosition(), 1).contains("\n") && !document.getCharacterElement(editor.getCaretPosition()-1).getName().equals("icon")){
@@ -378,77 +535,62 @@ public class Model implements ClipboardOwner{
     }
     
     /**
-     * @return zda byl modifikován soubor s globálním nastavením funkcí od poslední aktualizace
-     * Pokud nebyl nastaven takový soubor, tak vrací false.
+     * Začne hlídat soubor s globálním nastavením funkcí a při každé jeho změně předá nové nastavení listeneru.
+     * (Nastavení se načte i hned na začátku.)
+     * @param listener listener změn nastavení funkcí
      */
-    public boolean wasRemoteFunctionSetupModified(){
-        return fileHandler.wasRemoteFunctionSetupModified();
+    public void watchGlobalFunctionsSetup(FunctionSetupListener listener){
+        FunctionSetupWatcher.getFunctionSetupWatcher().start(fileHandler, listener);
     }
     
     /**
      * Metoda je zavolána v případě, že do systémové schránky je nahrán obsah z jiné aplikace. 
+     * Obsah se převezme do lokální schránky. Schránka se znovu nepřivlastňuje (jiná aplikace by přišla
+     * o své formáty dat), o dalším obsahu z jiných aplikací se editor dozví při aktivaci okna.
      */
     @Override
     public void lostOwnership(Clipboard clipboard, Transferable contents) {
-        //Musí se chvilku počkat, aby nedošlo k souběhu
-        try {
-            Thread.sleep(200);
-        } catch (InterruptedException ex) {
-            LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
-        }
-        document.clipBoardWasChanged(false);
+        clipboardOwner = false;
         transformContetnOfSystemClipboardToLocalClipboard();
     }
     
     /**
      * Přetransformování obsahu ze systémové schránky do lokální schránky.
-     * Tato metoda by se měla volat pouze v případě, že obsah byl změněn jiným programem.
+     * Pokud je v systémové schránce obsah vložený tímto editorem, tak se nic nestane.
+     * Systémová schránka se čte na pozadí, lokální schránka se změní (v EDT), až bude obsah přečten.
      */
     public void transformContetnOfSystemClipboardToLocalClipboard(){
-        try {
-            Transferable transferable = Toolkit.getDefaultToolkit().getSystemClipboard().getContents(null);
-            if (transferable != null){
-                //jedná se čistě jenom o obrázek
-                if(transferable.isDataFlavorSupported(DataFlavor.imageFlavor) && !transferable.isDataFlavorSupported(DataFlavor.stringFlavor)){
-                    localClipboard.setContents(transferable, model);
-                //jedná se o cokoli v čem je text
-                }else if(transferable.isDataFlavorSupported(DataFlavor.stringFlavor)){
-                    //převést na text
-                    localClipboard.setContents(new StringSelection((String) Toolkit.getDefaultToolkit().getSystemClipboard().getData(DataFlavor.stringFlavor)), model);
+        clipboardSynchronizer.submit(new ClipboardSynchronizer.ClipboardTask() {
+            @Override
+            public void run(Clipboard systemClipboard) throws IOException, UnsupportedFlavorException {
+                if(clipboardOwner){
+                    //v lokální schránce je stejný obsah i s formátováním
+                    return;
+                }
+                Transferable transferable = systemClipboard.getContents(null);
+                final Transferable localContents;
+                if (transferable != null){
+                    //jedná se čistě jenom o obrázek
+                    if(transferable.isDataFlavorSupported(DataFlavor.imageFlavor) && !transferable.isDataFlavorSupported(DataFlavor.stringFlavor)){
+                        localContents = new ImageSelection((Image) transferable.getTransferData(DataFlavor.imageFlavor));
+                    //jedná se o cokoli v čem je text
+                    }else if(transferable.isDataFlavorSupported(DataFlavor.stringFlavor)){
+                        //převést na text
+                        localContents = new StringSelection((String) transferable.getTransferData(DataFlavor.stringFlavor));
+                    }else{
+                        localContents = null;
+                    }
                 }else{
-                    localClipboard.setContents(null, model);
+                    localContents = null;
                 }
-            }else{
-                localClipboard.setContents(null, model);
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        localClipboard.setContents(localContents, model);
+                    }
+                });
             }
-        } catch (UnsupportedFlavorException ex) {
-            LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
-        } catch (IOException ex) {
-            LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
-        }
-    }
-    
-    /**
-     * Přivlastní systémovou schránku (vlastníkem bude Typoň).
-     */
-    public void ownClipBoard(){
-        Clipboard systemCliboard = Toolkit.getDefaultToolkit().getSystemClipboard(); 
-
-        //Zapamatujeme si obsah systémové schránky
-        Transferable content = systemCliboard.getContents(this);
-        
-        //Je tam nějaký bug, takže se musí chvilku počkat před dalším použitím schránky.
-        try {
-            Thread.sleep(200);
-        } catch (InterruptedException ex) {
-            LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
-        }
-        
-        //vrácení původního obsahu do systémové schránky
-        systemCliboard.setContents(content, this);
-        
-        //Tohle případně systémovou schránku jakoby uzavře. (stejně jako u souboru)
-       Toolkit.getDefaultToolkit().getSystemClipboard();
+        });
     }
     
     /************************************************************************************************
@@ -464,129 +606,141 @@ public class Model implements ClipboardOwner{
         //StyleConstants.setAlignment(attrs, ALIGN);
         StyleConstants.setFontFamily(attrs, FONT_FAMILY);
         StyleConstants.setBold(attrs, BOLD);
-        setUnsupportedAttributes(attrs);
-    }
-    
-    /**
-     * Nastaví atributy, které nejdou v editoru měnit uživatelem na defaultní hodnoty.
-     * @param attrs set atributů (může být null)
-     */
-    private void setUnsupportedAttributes(MutableAttributeSet attrs) {
-        if(attrs == null){
-            attrs = new SimpleAttributeSet();
-        }
-        StyleConstants.setFirstLineIndent(attrs, FIRST_LINE_INDENT);
-        StyleConstants.setBidiLevel(attrs, BIDI_LEVEL);
-        StyleConstants.setLeftIndent(attrs, LEFT_INDENT);
-        StyleConstants.setLineSpacing(attrs, LINE_SPACING);
-        StyleConstants.setSpaceAbove(attrs, SPACE_ABOVE);
-        StyleConstants.setSpaceBelow(attrs, SPACE_BELOW);
-        StyleConstants.setBackground(attrs, BACKGROUND);
-        StyleConstants.setForeground(attrs, FOREGROUND);
-        StyleConstants.setItalic(attrs, ITALIC);
-        StyleConstants.setRightIndent(attrs, RIGHT_INDENT);
-        StyleConstants.setStrikeThrough(attrs, STRIKE_THROUGH);
-        StyleConstants.setUnderline(attrs, UNDERLINE);
-        StyleConstants.setSubscript(attrs, SUBSCRIPT);
-        StyleConstants.setSuperscript(attrs, SUPERSCRIPT);
         editor.setCharacterAttributes(attrs, false);
         editor.setParagraphAttributes(attrs, false);
         document.setParagraphAttributes(0, document.getLength()+1, attrs, false);
         document.setCharacterAttributes(0, document.getLength()+1, attrs, false);
+        setUnsupportedAttributes();
     }
     
     /**
-     * Buďto převede schránku na string bez formátování a nebo v případě obrázku do ní vloží pouze samotný obrázek.
-     * @param clipBoard schránka
+     * Nastaví atributy, které nejdou v editoru měnit uživatelem na defaultní hodnoty (v celém dokumentu).
      */
-    private void stringOrImageToClipboard(Clipboard clipBoard){
-        //Je tam nějaký bug, takže se musí chvilku počkat před dalším použitím schránky.
-        try {
-            Thread.sleep(200);
-        } catch (InterruptedException ex) {
-            LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
-        }
-        
-        //Vložit do schránky obrázek nebo text?
-        Caret caret = editor.getCaret();
-        if (caret.getDot()==(caret.getMark()-1) && document.getCharacterElement(editor.getCaret().getDot()).getName().equals("icon")){
-            //jestliže se jedná o samotný obrázek, tak ho vložit do schránky
-            clipBoard.setContents(new ImageSelection(IconMyView.getCurrentImageView().getOriginal()), this);
-        }else{
-            //Odstraní ze schránky formátování textu a různé objekty (obrázky) => nechá pouze čistý text
-            try {
-                clipBoard.setContents(new StringSelection((String) clipBoard.getData(DataFlavor.stringFlavor)), this);
-            } catch (UnsupportedFlavorException | IOException ex) {
-                LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
-            }
-        } 
+    private void setUnsupportedAttributes() {
+        setUnsupportedAttributes(0, document.getLength()+1);
     }
     
     /**
-     * Převede obsah systémové schránky do lokální schránky této aplikace a v systémové schránce nechá pouze holý text bez formátování a obrázků
+     * Nastaví atributy, které nejdou v editoru měnit uživatelem na defaultní hodnoty 
+     * pouze v dané části dokumentu (a v odstavcích, do kterých zasahuje).
+     * Atributy se z elementů odstraní, takže se použijí hodnoty z defaultního stylu dokumentu.
+     * @param start začátek části dokumentu
+     * @param end konec části dokumentu
      */
-    private void transferToLocalClipboard(){
-        Clipboard systemCliboard = Toolkit.getDefaultToolkit().getSystemClipboard(); 
-        
-        //překopírování obsahu ze systémové schránky do lokální schránky
-        localClipboard.setContents(systemCliboard.getContents(this), this);
-        
-        stringOrImageToClipboard(systemCliboard);
-        
-        //Tohle případně systémovou schránku jakoby uzavře. (stejně jako u souboru)
-        Toolkit.getDefaultToolkit().getSystemClipboard();
+    private void setUnsupportedAttributes(int start, int end) {
+        List<?> names = Collections.list(createUnsupportedAttributes().getAttributeNames());
+        editor.getInputAttributes().removeAttributes(Collections.enumeration(names));
+        document.removeAttributes(start, end-start, names);
     }
     
     /**
-     * Vloží do editoru data ze schránky. 
-     * (Pokud pocházejí data z tohoto editoru, tak se vloží i s formátováním a pokud zvenčí tak bez.)
+     * Zkopíruje (nebo vyjme) označený obsah do lokální schránky i s formátováním a obrázky.
+     * Do systémové schránky se (na pozadí) vloží pouze holý text bez formátování, 
+     * nebo samotný obrázek, pokud je označen pouze obrázek.
+     * @param cut true, pokud se má označený obsah vyjmout
      */
-    private void pasteCorectly(){
-        Clipboard systemCliboard = Toolkit.getDefaultToolkit().getSystemClipboard(); 
-
-        //Zapamatujeme si obsah systémové schránky
-        Transferable content = systemCliboard.getContents(this);
+    private void exportToLocalClipboard(boolean cut){
+        int start = editor.getSelectionStart();
+        int end = editor.getSelectionEnd();
+        if(start == end){
+            return;
+        }
         
-        //překopírování obsahu z lokální schránky do systémové schránky
-        systemCliboard.setContents(localClipboard.getContents(this), this);
-
-        //bere data ze systémové schránky
-        pasteStringOrImage();
+        //Vložit do systémové schránky obrázek nebo text? (Musí se zjistit dřív, než se označený obsah případně vyjme.)
+        Transferable systemContents = null;
+        Caret caret = editor.getCaret();
+        if (caret.getDot()==(caret.getMark()-1) && document.getCharacterElement(caret.getDot()).getName().equals("icon")){
+            //jestliže se jedná o samotný obrázek, tak ho vložit do schránky (obrázek se bere z dokumentu, ne z naposledy vykresleného pohledu)
+            Icon icon = StyleConstants.getIcon(document.getCharacterElement(caret.getDot()).getAttributes());
+            if(icon instanceof ImageIcon){
+                //StoredImageIcon se případně teď dekóduje
+                systemContents = new ImageSelection(((ImageIcon) icon).getImage());
+            }
+        }
         
-        //Je tam nějaký bug, takže se musí chvilku počkat před dalším použitím schránky.
+        DocumentFragment fragment;
         try {
-            Thread.sleep(200);
-        } catch (InterruptedException ex) {
+            fragment = DocumentFragment.copyOf(document, start, end);
+            localClipboard.setContents(fragment, this);
+            if(cut){
+                document.remove(start, end-start);
+            }
+        } catch (BadLocationException ex) {
             LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
+            return;
         }
         
-        //vrácení původního obsahu do systémové schránky
-        systemCliboard.setContents(content, this);
-        
-        //Tohle případně systémovou schránku jakoby uzavře. (stejně jako u souboru)
-       Toolkit.getDefaultToolkit().getSystemClipboard();
+        if(systemContents == null){
+            //jiným aplikacím se nabídne pouze čistý text bez formátování a obrázků
+            systemContents = fragment.getPlainTextSelection();
+        }
+        final Transferable contents = systemContents;
+        clipboardSynchronizer.submit(new ClipboardSynchronizer.ClipboardTask() {
+            @Override
+            public void run(Clipboard systemClipboard) {
+                //nastavuje se předem, protože lostOwnership může přijít hned po vložení obsahu
+                clipboardOwner = true;
+                systemClipboard.setContents(contents, model);
+            }
+        });
     }
     
     /**
-     * Rozliší, zda je ve schránce obrázek nebo text a vloží obsach schránky.
+     * Rozliší, zda je ve schránce část dokumentu z tohoto editoru, obrázek nebo text a vloží obsach schránky.
+     * (Pokud pocházejí data z tohoto editoru, tak se vloží i s formátováním a pokud zvenčí tak bez.)
+     * @param transferable obsah lokální schránky
+     * @throws BadLocationException Pokud bylo přistupováno k neexistujícímu indexu v dokumentu.
      */
-    private void pasteStringOrImage(){
-        Transferable transferable = localClipboard.getContents(null);
-        if(transferable != null){
-            if (transferable.isDataFlavorSupported(DataFlavor.imageFlavor)){
+    private void pasteStringOrImage(Transferable transferable) throws BadLocationException{
+        try {
+            if (transferable.isDataFlavorSupported(DocumentFragment.FRAGMENT_FLAVOR)){
+                DocumentFragment fragment = (DocumentFragment) transferable.getTransferData(DocumentFragment.FRAGMENT_FLAVOR);
+                int start = editor.getSelectionStart();
+                int end = editor.getSelectionEnd();
+                if(end > start){
+                    document.remove(start, end-start);
+                }
+                editor.setCaretPosition(fragment.insertInto(document, start));
+            }else if (transferable.isDataFlavorSupported(DataFlavor.imageFlavor)){
                 try {
                     editor.insertIcon(new ImageIcon((Image) transferable.getTransferData(DataFlavor.imageFlavor)));
-                } catch (UnsupportedFlavorException ex) {
-                    LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
                 } catch (IOException ex) {
-                    editor.paste();
+                    editor.getTransferHandler().importData(editor, transferable);
                 }
             }else{
-                editor.paste();
+                editor.getTransferHandler().importData(editor, transferable);
             }
+        } catch (UnsupportedFlavorException | IOException ex) {
+            LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
         }
     }
    
+    /************************************************************************************************
+    Deklarace statických metod.
+    ************************************************************************************************/
+    
+    /**
+     * @return defaultní hodnoty atributů, které nejdou v editoru měnit uživatelem
+     */
+    static MutableAttributeSet createUnsupportedAttributes() {
+        MutableAttributeSet attrs = new SimpleAttributeSet();
+        StyleConstants.setFirstLineIndent(attrs, FIRST_LINE_INDENT);
+        StyleConstants.setBidiLevel(attrs, BIDI_LEVEL);
+        StyleConstants.setLeftIndent(attrs, LEFT_INDENT);
+        StyleConstants.setLineSpacing(attrs, LINE_SPACING);
+        StyleConstants.setSpaceAbove(attrs, SPACE_ABOVE);
+        StyleConstants.setSpaceBelow(attrs, SPACE_BELOW);
+        StyleConstants.setBackground(attrs, BACKGROUND);
+        StyleConstants.setForeground(attrs, FOREGROUND);
+        StyleConstants.setItalic(attrs, ITALIC);
+        StyleConstants.setRightIndent(attrs, RIGHT_INDENT);
+        StyleConstants.setStrikeThrough(attrs, STRIKE_THROUGH);
+        StyleConstants.setUnderline(attrs, UNDERLINE);
+        StyleConstants.setSubscript(attrs, SUBSCRIPT);
+        StyleConstants.setSuperscript(attrs, SUPERSCRIPT);
+        return attrs;
+    }
+
     /************************************************************************************************
     Deklarace soukromých tříd.
     ************************************************************************************************/
@@ -8,12 +8,19 @@ package model;
 
 import java.awt.Font;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.ImageIcon;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.UndoableEditEvent;
 import javax.swing.text.AttributeSet;
 import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
 import javax.swing.text.MutableAttributeSet;
 import javax.swing.text.SimpleAttributeSet;
 import javax.swing.text.StyleConstants;
@@ -45,9 +52,15 @@ public class MyDocument extends AdvancedRTFDocument{
     private final ArrayList<Integer> uncorrectPositions = new ArrayList();
     
     /**
-     * Indikátor, zda byla schránka změněna samotným editorem.
+     * Počet velikostí písma (od 0), jejichž fonty se uchovávají ve vyrovnávací paměti.
      */
-    private boolean clipBoardWasChangedByThisApp = false;
+    private static final int CACHED_FONT_SIZES = 128;
+    
+    /**
+     * Vyrovnávací paměť již vytvořených fontů podle rodiny písma. 
+     * Pole fontů jedné rodiny je indexované velikostí a stylem písma (viz getFontIndex()).
+     */
+    private final ConcurrentHashMap<String, Font[]> fonts = new ConcurrentHashMap<>();
     
     /**
      * Globální logger chyb
@@ -60,6 +73,8 @@ public class MyDocument extends AdvancedRTFDocument{
     
     public MyDocument() {
         super();
+        //atributy, které uživatel nemůže měnit, mají všechny elementy stejné, takže se drží pouze v defaultním stylu
+        getStyle(StyleContext.DEFAULT_STYLE).addAttributes(Model.createUnsupportedAttributes());
     }
 
     /************************************************************************************************
@@ -70,14 +85,34 @@ public class MyDocument extends AdvancedRTFDocument{
         this.readingInProgress = readingInProgress;
     }
     
+    /**
+     * Vrátí font odpovídající atributům. Fonty se berou z vyrovnávací paměti, 
+     * protože se volá při každém rozvržení a vykreslení textu (a v dokumentu je jen pár různých fontů).
+     * @param attr atributy
+     * @return font
+     */
     @Override
     public Font getFont(AttributeSet attr){
-        StyleContext styles = (StyleContext) getAttributeContext();
-        MutableAttributeSet attrs = new SimpleAttributeSet(attr);
-        //Zvětšujeme velikost fontu, aby vypadal jako v ostatních editorech.
-        //StyleConstants.setFontSize(attrs, (StyleConstants.getFontSize(attr)*96/72));
-        StyleConstants.setFontSize(attrs, (StyleConstants.getFontSize(attr)*100/70));
-        return styles.getFont(attrs);
+        int size = StyleConstants.getFontSize(attr);
+        if(size < 0 || size >= CACHED_FONT_SIZES){
+            return createFont(attr);
+        }
+        String family = StyleConstants.getFontFamily(attr);
+        Font[] familyFonts = fonts.get(family);
+        if(familyFonts == null){
+            familyFonts = new Font[CACHED_FONT_SIZES*8];
+            Font[] previous = fonts.putIfAbsent(family, familyFonts);
+            if(previous != null){
+                familyFonts = previous;
+            }
+        }
+        int index = getFontIndex(size, attr);
+        Font font = familyFonts[index];
+        if(font == null){
+            font = createFont(attr);
+            familyFonts[index] = font;
+        }
+        return font;
     }
 
     /**
@@ -106,6 +141,7 @@ public class MyDocument extends AdvancedRTFDocument{
     @Override
     public void remove(int offset, int length) throws BadLocationException{
         MyUndoManager.getUndoManager().setCurrentRemoveValue(getText(offset, 1));
+        MyUndoManager.getUndoManager().setCurrentRemovedRange(this, offset, length);
         
         //jedna se o mazani jednoho znaku
         if(length==1){
@@ -118,8 +154,7 @@ public class MyDocument extends AdvancedRTFDocument{
                 }
             }
             //jedná se o obrázek
-            //tohle je ošetření případu, kdy je zvětšován obrázek (je smazán a nahrezen jiným)
-            //v tu chvíli, ale odstavec za ním dostane na chvilku mezi smazání a přidáním jeho atributy
+            //odstavec za obrázkem se spojí s odstavcem obrázku, ale musí si ponechat své atributy (např. zarovnání)
             if(getCharacterElement(offset).getName().equals("icon")){
                 AttributeSet attr = getParagraphElement(offset+1).getAttributes();
                 super.remove(offset, 1);
@@ -178,48 +213,263 @@ public class MyDocument extends AdvancedRTFDocument{
     }
 
     /**
-     * Provede opravu dokumentu po vložení obsahu. (Smaže všechny nové řádky, které byly vloženy navíc za obrázky.)
+     * Převezme obsah jiného dokumentu, do kterého byl přečten obsah souboru nebo schránky (např. ve formátu RTF),
+     * a vynechá z něj nové řádky, které byly při čtení vloženy navíc za obrázky.
+     * Do prázdného dokumentu se obsah převezme jednou strukturální změnou, jinak se vloží jako část dokumentu.
+     * @param source dokument s přečteným obsahem
+     * @param pos pozice v tomto dokumentu, na kterou se má obsah vložit
+     * @throws BadLocationException v případě, že daná pozice v dokumentu neexistuje
      */
-    public void correctDocument(){
-        Iterator iterator = uncorrectPositions.iterator();
-        int shift = 0;
-        while (iterator.hasNext()){
-            int pos = (int) iterator.next();
-            try {
-                super.remove(pos-shift,1);
-            } catch (BadLocationException ex) {
-                //Tohle je čuňárna, ale situace si to žádala!!!
-                //Ošetřuje to chybu, kdy jsem zkopíroval obrázek před obrázkem a po vložení se mi vložili dva obrázky.
-                //Tohle ten jeden obrázek navíc dodatečně odstraní.
-                if(clipBoardWasChangedByThisApp){
-                    if(getCharacterElement(pos-shift-1).getName().equals("icon")){
-                        try {
-                            super.remove(pos-shift-1,1);
-                        } catch (BadLocationException ex1) {
-                            LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
-                        }
-                    }else{
-                        LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
-                    }
+    void insertReadContent(MyDocument source, int pos) throws BadLocationException{
+        ElementSpec[] specs = source.getElementSpecs(new HashSet<>(source.uncorrectPositions));
+        source.uncorrectPositions.clear();
+        if(getLength() == 0){
+            replaceContent(specs);
+        }else{
+            MyDocument corrected = new MyDocument();
+            corrected.replaceContent(specs);
+            DocumentFragment.copyOf(corrected, 0, corrected.getLength()).insertInto(this, pos);
+        }
+    }
+    
+    /**
+     * Vytvoří samostatnou kopii dokumentu (se stejnými elementy, atributy a obrázky).
+     * Kopie není nijak svázána s editorem, takže s ní lze bezpečně pracovat v jiném vlákně, 
+     * zatímco uživatel dál edituje tento dokument.
+     * @return kopie dokumentu
+     */
+    public MyDocument createSnapshot(){
+        MyDocument snapshot = new MyDocument();
+        snapshot.replaceContent(getElementSpecs(Collections.<Integer>emptySet()));
+        return snapshot;
+    }
+    
+    /**
+     * Převezme celý obsah jiného dokumentu jednou strukturální změnou. (Tento dokument musí být prázdný.)
+     * @param source dokument, jehož obsah se převezme
+     */
+    void copyContentFrom(MyDocument source){
+        replaceContent(source.getElementSpecs(Collections.<Integer>emptySet()));
+    }
+    
+    /**
+     * Vloží řetězec bez jakýchkoliv úprav okolo obrázků. (Pro přehrání změn zaznamenaných v žurnálu.)
+     * @param offs pozice v dokumentu
+     * @param str obsah
+     * @param a atributy vkládaného obsahu
+     * @throws BadLocationException v případě, že je obsah vkládán na neexistující pozici v dokumentu
+     */
+    void insertStringDirectly(int offs, String str, AttributeSet a) throws BadLocationException{
+        super.insertString(offs, str, a);
+    }
+    
+    /**
+     * Smaže řetězec bez jakýchkoliv úprav okolo obrázků. (Pro přehrání změn zaznamenaných v žurnálu.)
+     * @param offset pozice mazané části v dokumentu
+     * @param length délka mazané části v dokumentu
+     * @throws BadLocationException v případě, že daná pozice v dokumentu neexistuje
+     */
+    void removeDirectly(int offset, int length) throws BadLocationException{
+        super.remove(offset, length);
+    }
+    
+    /**
+     * Odstraní dané atributy z odstavců a úseků textu, které zasahují do dané části dokumentu, 
+     * takže se místo nich použijí hodnoty z defaultního stylu dokumentu.
+     * Všechny změny se oznámí jednou událostí (a vrací se jako jedna editace).
+     * @param offset začátek části dokumentu
+     * @param length délka části dokumentu
+     * @param names názvy odstraňovaných atributů
+     */
+    void removeAttributes(int offset, int length, List<?> names){
+        offset = Math.max(0, Math.min(offset, getLength()));
+        length = Math.max(0, Math.min(length, getLength()+1-offset));
+        try{
+            writeLock();
+            DefaultDocumentEvent changes = new DefaultDocumentEvent(offset, length, DocumentEvent.EventType.CHANGE);
+            boolean changed = false;
+            Element root = getDefaultRootElement();
+            int end = offset + length;
+            for(int i = root.getElementIndex(offset); i <= root.getElementIndex(end); i++){
+                Element paragraph = root.getElement(i);
+                changed |= removeAttributes(paragraph, names, changes);
+                int first = paragraph.getElementIndex(Math.max(offset, paragraph.getStartOffset()));
+                int last = paragraph.getElementIndex(Math.min(end, paragraph.getEndOffset()-1));
+                for(int j = first; j <= last; j++){
+                    changed |= removeAttributes(paragraph.getElement(j), names, changes);
                 }
             }
-            shift++;
+            changes.end();
+            if(changed){
+                fireChangedUpdate(changes);
+                fireUndoableEditUpdate(new UndoableEditEvent(this, changes));
+            }
+        }finally{
+            writeUnlock();
         }
-        uncorrectPositions.clear();
     }
     
     /**
-     * Nastaví iínidkátor, že schránka byla změněna.
-     * @param byThisApp Byla změněna tímto editorem?
+     * Změní rozměry, na které se zobrazí obrázek na dané pozici. Samotný obrázek v dokumentu se nemění,
+     * takže si vratitelná změna pamatuje pouze původní a nové rozměry.
+     * @param offset pozice obrázku v dokumentu
+     * @param width nová šířka obrázku (0 pro původní rozměry)
+     * @param height nová výška obrázku (0 pro původní rozměry)
      */
-    public void clipBoardWasChanged(boolean byThisApp){
-        clipBoardWasChangedByThisApp = byThisApp;
+    public void resizePicture(int offset, int width, int height){
+        Element element = getCharacterElement(offset);
+        if(StyleConstants.getIcon(element.getAttributes()) == null){
+            return;
+        }
+        try{
+            writeLock();
+            DefaultDocumentEvent changes = new DefaultDocumentEvent(element.getStartOffset(), element.getEndOffset()-element.getStartOffset(), DocumentEvent.EventType.CHANGE);
+            ImageResizeEdit edit = new ImageResizeEdit(element, width, height);
+            edit.apply();
+            changes.addEdit(edit);
+            changes.end();
+            fireChangedUpdate(changes);
+            fireUndoableEditUpdate(new UndoableEditEvent(this, changes));
+        }finally{
+            writeUnlock();
+        }
     }
     
     /************************************************************************************************
     Deklarace soukromých metod.
     ************************************************************************************************/
     
+    /**
+     * Odstraní dané atributy z elementu (pokud je má) a zaznamená změnu.
+     * @param element element
+     * @param names názvy odstraňovaných atributů
+     * @param changes událost, do které se změna zaznamená
+     * @return zda element některý z atributů měl
+     */
+    private static boolean removeAttributes(Element element, List<?> names, DefaultDocumentEvent changes){
+        MutableAttributeSet attrs = (MutableAttributeSet) element.getAttributes();
+        MutableAttributeSet remaining = null;
+        for(Object name : names){
+            if(attrs.isDefined(name)){
+                if(remaining == null){
+                    remaining = new SimpleAttributeSet(attrs);
+                }
+                remaining.removeAttribute(name);
+            }
+        }
+        if(remaining == null){
+            return false;
+        }
+        //editace si pamatuje původní atributy, proto se musí vytvořit před jejich změnou
+        changes.addEdit(new AttributeUndoableEdit(element, remaining, true));
+        attrs.removeAttributes(Collections.enumeration(names));
+        return true;
+    }
+    
+    /**
+     * @param skipped pozice nových řádků vložených navíc za obrázky, které se mají vynechat
+     * @return specifikace všech elementů dokumentu (pro jejich vytvoření v jiném dokumentu)
+     */
+    private ElementSpec[] getElementSpecs(Set<Integer> skipped){
+        List<ElementSpec> specs = new ArrayList<>();
+        readLock();
+        try {
+            addElementSpecs(getDefaultRootElement(), skipped, specs);
+        } catch (BadLocationException ex) {
+            LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
+        } finally {
+            readUnlock();
+        }
+        return specs.toArray(new ElementSpec[specs.size()]);
+    }
+    
+    /**
+     * Nahradí celý obsah tohoto (prázdného) dokumentu elementy popsanými v daných specifikacích jednou strukturální změnou.
+     * @param specs specifikace elementů (začínají kořenovým elementem a obsahují i poslední znak nového řádku)
+     */
+    void replaceContent(ElementSpec[] specs){
+        create(specs);
+        //create() za vložený obsah ještě přidá vlastní poslední odstavec, takže je potřeba ten vložený navíc spojit s ním
+        try {
+            super.remove(getLength()-1, 1);
+        } catch (BadLocationException ex) {
+            LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
+        }
+    }
+    
+    /**
+     * Přidá do seznamu specifikace daného elementu a všech jeho potomků.
+     * Kořenový element nemá ukončující specifikaci, protože ho ukončí až samotné vytvoření dokumentu.
+     * Vynechají se prázdné odstavce za obrázky, které tvoří nové řádky vložené navíc na daných pozicích.
+     * @param element element
+     * @param skipped pozice nových řádků vložených navíc za obrázky, které se mají vynechat
+     * @param specs seznam specifikací
+     * @throws BadLocationException v případě, že element odkazuje na neexistující pozici v dokumentu
+     */
+    private void addElementSpecs(Element element, Set<Integer> skipped, List<ElementSpec> specs) throws BadLocationException{
+        if(element.isLeaf()){
+            int start = element.getStartOffset();
+            String text = getText(start, element.getEndOffset()-start);
+            specs.add(new ElementSpec(element.getAttributes().copyAttributes(), ElementSpec.ContentType, text.toCharArray(), 0, text.length()));
+            return;
+        }
+        if(isSkippedNewLine(element, skipped)){
+            return;
+        }
+        specs.add(new ElementSpec(element.getAttributes().copyAttributes(), ElementSpec.StartTagType));
+        for(int i = 0; i < element.getElementCount(); i++){
+            addElementSpecs(element.getElement(i), skipped, specs);
+        }
+        if(element != getDefaultRootElement()){
+            specs.add(new ElementSpec(null, ElementSpec.EndTagType));
+        }
+    }
+    
+    /**
+     * Vytvoří font odpovídající atributům.
+     * @param attr atributy
+     * @return font
+     */
+    private Font createFont(AttributeSet attr){
+        StyleContext styles = (StyleContext) getAttributeContext();
+        MutableAttributeSet attrs = new SimpleAttributeSet(attr);
+        //Zvětšujeme velikost fontu, aby vypadal jako v ostatních editorech.
+        //StyleConstants.setFontSize(attrs, (StyleConstants.getFontSize(attr)*96/72));
+        StyleConstants.setFontSize(attrs, (StyleConstants.getFontSize(attr)*100/70));
+        return styles.getFont(attrs);
+    }
+    
+    /**
+     * @param size velikost písma
+     * @param attr atributy
+     * @return index fontu v poli fontů jedné rodiny písma
+     */
+    private static int getFontIndex(int size, AttributeSet attr){
+        int index = size*8;
+        if(StyleConstants.isBold(attr)){
+            index += 1;
+        }
+        if(StyleConstants.isItalic(attr)){
+            index += 2;
+        }
+        //horní a dolní index se vykresluje menším písmem
+        if(StyleConstants.isSuperscript(attr) || StyleConstants.isSubscript(attr)){
+            index += 4;
+        }
+        return index;
+    }
+    
+    /**
+     * @param paragraph odstavec
+     * @param skipped pozice nových řádků vložených navíc za obrázky
+     * @return zda je odstavec pouze novým řádkem vloženým navíc za obrázek
+     */
+    private boolean isSkippedNewLine(Element paragraph, Set<Integer> skipped){
+        int start = paragraph.getStartOffset();
+        return skipped.contains(start) && paragraph.getEndOffset() == start+1 && start > 0 
+                && getCharacterElement(start-1).getName().equals("icon");
+    }
+    
     /**
      * Vloží do dokumentu obrázek (ve formě atributu) na dané místo. 
      * @param offs pozice v dokumentu
@@ -11,12 +11,17 @@ import java.util.Stack;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.AbstractAction;
+import javax.swing.Icon;
 import javax.swing.event.DocumentEvent.EventType;
 import javax.swing.event.UndoableEditEvent;
 import javax.swing.event.UndoableEditListener;
 import javax.swing.text.AbstractDocument;
 import javax.swing.text.AbstractDocument.DefaultDocumentEvent;
 import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.StyledDocument;
 import javax.swing.undo.AbstractUndoableEdit;
 import javax.swing.undo.CannotUndoException;
 import javax.swing.undo.CompoundEdit;
@@ -76,6 +81,27 @@ public class MyUndoManager extends AbstractUndoableEdit implements UndoableEditL
      */
     private int innerGroups = 0;
     
+    /**
+     * Maximální přibližná velikost (v bajtech) všech zapamatovaných editací. 
+     * Lze nastavit (v MB) systémovou vlastností typon.undo.budget.
+     */
+    private final long budget = Long.getLong("typon.undo.budget", 64)*1024*1024;
+    
+    /**
+     * Přibližná velikost (v bajtech) všech zapamatovaných editací.
+     */
+    private long totalSize = 0;
+    
+    /**
+     * Přibližná velikost (v bajtech) obrázků v právě mazané části dokumentu.
+     */
+    private long currentRemovedIconsSize = 0;
+    
+    /**
+     * Přibližná velikost jedné editace bez jejího obsahu (v bajtech).
+     */
+    private static final int EDIT_OVERHEAD = 200;
+    
     /**
      * Globální logger chyb
      */
@@ -133,6 +159,7 @@ public class MyUndoManager extends AbstractUndoableEdit implements UndoableEditL
      */
     public void clearManager(){
         edits.clear();
+        totalSize = 0;
         undoAction.updateUndoState();
         current=null;
     }
@@ -153,21 +180,27 @@ public class MyUndoManager extends AbstractUndoableEdit implements UndoableEditL
         if (e.getEdit() instanceof AbstractDocument.DefaultDocumentEvent) {            
             DefaultDocumentEvent edit = (DefaultDocumentEvent) e.getEdit();
             int currentOffset = edit.getOffset();
+            //editace se vždy přidá do některé ze skupin
+            long size = estimateSize(edit);
             try {   
+                MyCompoundEdit compound;
                 //pokud se jedná o skupinu editací tak nastavit, aby se tvářili jako jedna
                 if(group){
-                    handleGroupCompound(currentOffset, edit);
+                    compound = handleGroupCompound(currentOffset, edit);
                 //pokud se jedná o vložení jednoho nebílého znaku, tak seskupit s předchozím vložením jednoho nebílého znaku (undování celých slov)
                 }else if(edit.getLength() == 1 && edit.getType() == EventType.INSERT && !edit.getDocument().getText(edit.getOffset(), 1).trim().isEmpty()){
-                    handleInsertCharCompound(currentOffset, edit);
+                    compound = handleInsertCharCompound(currentOffset, edit);
                 //pokud se jedná o vymazání nebílého znaku, tak seskupit s předchozím vymazáním nebílého znaku (undování mazání celých slov)
                 }else if(edit.getLength() == 1 && edit.getType() == EventType.REMOVE && !currentRemovedValue.trim().isEmpty()){
-                    handleRemoveCharCompound(currentOffset, edit);
+                    compound = handleRemoveCharCompound(currentOffset, edit);
                 //neseskupovat
                 }else{
-                    handleSingleEdit(edit);
+                    compound = handleSingleEdit(edit);
                 }
+                compound.size += size;
+                totalSize += size;
                 
+                evictOldEditsIfNeeded();
                 undoAction.updateUndoState();
             } catch (BadLocationException ex) {
                 LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
@@ -175,6 +208,30 @@ public class MyUndoManager extends AbstractUndoableEdit implements UndoableEditL
         }
     }
 
+    /**
+     * Zapamatuje si velikost obrázků v právě mazané části dokumentu (pro odhad velikosti editace).
+     * Obrázek se zakódovanou podobou se počítá velikostí zakódované podoby (dekódovaný obrázek může sdílet
+     * s dalšími výskyty v dokumentu a po vyřazení z editoru ho lze znovu dekódovat), ostatní obrázky velikostí bitmapy.
+     * @param document dokument
+     * @param offset pozice mazané části v dokumentu
+     * @param length délka mazané části v dokumentu
+     */
+    public void setCurrentRemovedRange(Document document, int offset, int length){
+        currentRemovedIconsSize = 0;
+        int end = offset + length;
+        int pos = offset;
+        while(pos < end){
+            Element run = ((StyledDocument) document).getCharacterElement(pos);
+            Icon icon = StyleConstants.getIcon(run.getAttributes());
+            if(icon instanceof StoredImageIcon){
+                currentRemovedIconsSize += ((StoredImageIcon) icon).getEncoded().length;
+            }else if(icon != null){
+                currentRemovedIconsSize += 4L*icon.getIconWidth()*icon.getIconHeight();
+            }
+            pos = run.getEndOffset();
+        }
+    }
+
     /**
      * Vrátí poslední změnu.
      * @throws CannotUndoException Pokud poslední změna nejde vrátit.
@@ -185,7 +242,9 @@ public class MyUndoManager extends AbstractUndoableEdit implements UndoableEditL
             throw new CannotUndoException();
         }
 
-        edits.pop().undo();
+        MyCompoundEdit edit = edits.pop();
+        totalSize -= edit.size;
+        edit.undo();
         undoAction.updateUndoState();
     }
 
@@ -201,6 +260,43 @@ public class MyUndoManager extends AbstractUndoableEdit implements UndoableEditL
     Deklarace soukromých metod.
     ************************************************************************************************/
 
+    /**
+     * Pokud zapamatované editace přesahují povolenou velikost, tak zapomene nejstarší skupiny editací.
+     * Poslední skupina se nikdy nezapomene (aby šla vždy vrátit alespoň poslední změna).
+     */
+    private void evictOldEditsIfNeeded(){
+        int evicted = 0;
+        long evictedSize = 0;
+        while(totalSize > budget && edits.size() > 1){
+            MyCompoundEdit oldest = edits.remove(0);
+            totalSize -= oldest.size;
+            evictedSize += oldest.size;
+            evicted++;
+            if(oldest == rememberedCompound){
+                rememberedCompound = null;
+            }
+            oldest.die();
+        }
+        if(evicted > 0){
+            LOGGER.log(Level.FINE, String.format("Z historie změn (Undo) zapomenuto %d nejstarších skupin změn (přibližně %d kB).", evicted, evictedSize/1024));
+        }
+    }
+    
+    /**
+     * Odhadne, kolik paměti zabírá editace. Kromě textu se počítají i obrázky, které byly editací z dokumentu odstraněny
+     * (a drží je už jen tato editace).
+     * @param edit editace
+     * @return přibližná velikost editace v bajtech
+     */
+    private long estimateSize(DefaultDocumentEvent edit){
+        long size = EDIT_OVERHEAD + 2L*edit.getLength();
+        if(edit.getType() == EventType.REMOVE){
+            size += currentRemovedIconsSize;
+            currentRemovedIconsSize = 0;
+        }
+        return size;
+    }
+    
     /**
      * Vytvoří novou skupinu změn.
      */
@@ -212,20 +308,23 @@ public class MyUndoManager extends AbstractUndoableEdit implements UndoableEditL
     /**
      * Vytvoří novou skupinu změn v případě potřeby a rovnou přidá editaci do skupiny.
      * @param edit aktuální editace do skupiny
+     * @return skupina, do které byla editace přidána
      */
-    private void createCompoundIfNeededAndAddEdit(DefaultDocumentEvent edit){
+    private MyCompoundEdit createCompoundIfNeededAndAddEdit(DefaultDocumentEvent edit){
         if (current==null){
             createCompoundEdit();
         }
         current.addEdit(edit);
+        return current;
     }
     
     /**
      * Ošetří případ, kdy je vkládán jeden znak a zaručí, že se budou seskupovat znaky po sobě vkládané.
      * @param currentOffset pozice aktuální editace
      * @param edit aktuální editace
+     * @return skupina, do které byla editace přidána
      */
-    private void handleInsertCharCompound(int currentOffset, DefaultDocumentEvent edit){
+    private MyCompoundEdit handleInsertCharCompound(int currentOffset, DefaultDocumentEvent edit){
         if(lastInsertOffset+1==currentOffset){
             createCompoundIfNeededAndAddEdit(edit);
         }else{
@@ -233,14 +332,16 @@ public class MyUndoManager extends AbstractUndoableEdit implements UndoableEditL
             current.addEdit(edit);
         }
         lastInsertOffset = currentOffset;
+        return current;
     }
     
     /**
      * Ošetří případ, kdy je mazán jeden znak a zaručí, že se budou seskupovat znaky po sobě mazané.
      * @param currentOffset pozice aktuální editace
      * @param edit aktuální editace
+     * @return skupina, do které byla editace přidána
      */
-    private void handleRemoveCharCompound(int currentOffset, DefaultDocumentEvent edit){
+    private MyCompoundEdit handleRemoveCharCompound(int currentOffset, DefaultDocumentEvent edit){
         if(lastRemoveOffset-1==currentOffset || lastRemoveOffset==currentOffset){
             createCompoundIfNeededAndAddEdit(edit);
         }else{
@@ -248,14 +349,16 @@ public class MyUndoManager extends AbstractUndoableEdit implements UndoableEditL
             current.addEdit(edit);
         }
         lastRemoveOffset = currentOffset;
+        return current;
     }
     
     /**
      * Ošetří případ, kdy je více editací seskupováno cíleně do skupiny.
      * @param currentOffset pozice aktuální editace
      * @param edit aktuální editace
+     * @return skupina, do které byla editace přidána
      */
-    private void handleGroupCompound(int currentOffset, DefaultDocumentEvent edit){
+    private MyCompoundEdit handleGroupCompound(int currentOffset, DefaultDocumentEvent edit){
         
         try {
             //ošetření speciálního případu, kdy mažeme znak před enterem a je zároveň měněn styl
@@ -278,20 +381,24 @@ public class MyUndoManager extends AbstractUndoableEdit implements UndoableEditL
             Logger.getLogger(MyUndoManager.class.getName()).log(Level.SEVERE, null, ex);
         }
             
-        createCompoundIfNeededAndAddEdit(edit);
+        MyCompoundEdit compound = createCompoundIfNeededAndAddEdit(edit);
         lastInsertOffset = -2;
+        return compound;
     }
     
     /**
      * Ošetří případ, kdy není potřeba žádné editace a jedná se o samostatnou editaci.
      * @param edit aktuální editace
+     * @return skupina, do které byla editace přidána
      */
-    private void handleSingleEdit(DefaultDocumentEvent edit){
+    private MyCompoundEdit handleSingleEdit(DefaultDocumentEvent edit){
         createCompoundEdit();
-        current.addEdit(edit);
+        MyCompoundEdit compound = current;
+        compound.addEdit(edit);
         current = null;
         lastInsertOffset = -2;
         lastRemoveOffset = -2;
+        return compound;
     }
     
     /************************************************************************************************
@@ -303,6 +410,11 @@ public class MyUndoManager extends AbstractUndoableEdit implements UndoableEditL
      */
     private static class MyCompoundEdit extends CompoundEdit {
         boolean isUnDone=false;
+        
+        /**
+         * Přibližná velikost všech editací ve skupině (v bajtech).
+         */
+        long size=0;
  
         @Override
         public void undo() throws CannotUndoException {
@@ -6,9 +6,17 @@
 
 package model;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.Document;
 import javax.swing.text.ViewFactory;
@@ -35,19 +43,48 @@ class MyEditorKit extends AdvancedRTFEditorKit{
         return new MyDocument();
     }
     
+    /**
+     * Přečte dokument ve formátu souboru .typon. Rozpozná i starší soubory ve formátu RTF.
+     * Starší soubory byly uloženy ve výchozím kódování systému, novější v kódování UTF-8. 
+     * Pokud tedy obsah souboru není validní UTF-8, tak je přečten ve výchozím kódování systému.
+     */
     @Override
     public void read(InputStream in, Document doc, int pos) throws IOException, BadLocationException {
-        ((MyDocument)doc).setReadingInProgress(true);
-        super.read(in, doc, pos);
-        ((MyDocument)doc).setReadingInProgress(false);
-        ((MyDocument)doc).correctDocument();
+        BufferedInputStream input = new BufferedInputStream(in);
+        if(DocumentContainer.isContainer(input)){
+            DocumentContainer.read(input, (MyDocument)doc, pos);
+            return;
+        }
+        
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while((count = input.read(buffer)) != -1){
+            content.write(buffer, 0, count);
+        }
+        String text;
+        try {
+            text = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(content.toByteArray())).toString();
+        } catch (CharacterCodingException ex) {
+            text = new String(content.toByteArray(), Charset.defaultCharset());
+        }
+        read(new StringReader(text), doc, pos);
     }
 
+    /**
+     * Přečte obsah ve formátu RTF (ze souboru nebo ze schránky).
+     * Obsah se nejdříve přečte do samostatného dokumentu, který není svázán s editorem, 
+     * a do dokumentu se převezme najednou, už bez nových řádků vložených při čtení navíc za obrázky.
+     */
     @Override
     public void read(Reader in, Document doc, int pos) throws IOException, BadLocationException {
-        ((MyDocument)doc).setReadingInProgress(true);
-        super.read(in, doc, pos);
-        ((MyDocument)doc).setReadingInProgress(false);
-        ((MyDocument)doc).correctDocument();
+        MyDocument content = new MyDocument();
+        content.setReadingInProgress(true);
+        super.read(in, content, 0);
+        content.setReadingInProgress(false);
+        ((MyDocument)doc).insertReadContent(content, pos);
     }    
 }
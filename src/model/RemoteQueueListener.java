@@ -0,0 +1,22 @@
+//==============================================================================
+// Copyright Jan Brzobohatý 2015.
+// Distributed under the MIT License.
+// (See accompanying file LICENSE or copy at http://opensource.org/licenses/MIT)
+//==============================================================================
+
+package model;
+
+/**
+ * Listener stavu fronty kopií dokumentu, které čekají na odeslání do sdíleného úložiště.
+ * Všechny metody jsou volány ve vlákně pro obsluhu událostí (EDT).
+ * @author Jan Brzobohatý
+ */
+public interface RemoteQueueListener {
+
+    /**
+     * Změnil se stav fronty.
+     * @param pending počet kopií, které čekají na odeslání
+     * @param unavailable true, pokud se poslední pokus o odeslání nezdařil (sdílené úložiště je nedostupné)
+     */
+    public void queueChanged(int pending, boolean unavailable);
+}
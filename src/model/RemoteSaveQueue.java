@@ -0,0 +1,298 @@
+//==============================================================================
+// Copyright Jan Brzobohatý 2015.
+// Distributed under the MIT License.
+// (See accompanying file LICENSE or copy at http://opensource.org/licenses/MIT)
+//==============================================================================
+
+package model;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.SwingUtilities;
+
+/**
+ * Třída představuje frontu kopií dokumentu, které čekají na odeslání do sdíleného úložiště.
+ * Kopie se nejdříve uloží do lokální složky (fronty) a odtud se na pozadí odesílají do sdíleného úložiště.
+ * Pokud je sdílené úložiště nedostupné, tak se odeslání opakuje s postupně se prodlužujícím odstupem.
+ * Fronta je uložena na disku, takže kopie, které se nepodařilo odeslat, se odešlou i po restartu aplikace.
+ * Fronta je společná pro všechny spuštěné instance editoru, kopii tak může odeslat kterákoli z nich.
+ * @author Jan Brzobohatý
+ */
+class RemoteSaveQueue {
+    /************************************************************************************************
+    Deklarace proměnných a konstant.
+    ************************************************************************************************/
+
+    /**
+     * Odstup prvního opakování odeslání (v ms).
+     */
+    private static final long INITIAL_RETRY_DELAY = 2000;
+
+    /**
+     * Nejdelší odstup opakování odeslání (v ms).
+     */
+    private static final long MAX_RETRY_DELAY = 5 * 60 * 1000;
+
+    /**
+     * Stáří (v ms), po kterém se dočasný soubor ve frontě považuje za pozůstatek po pádu aplikace.
+     * (Fronta je společná pro všechny spuštěné instance editoru, mladší dočasné soubory může zrovna zapisovat jiná instance.)
+     */
+    private static final long STALE_TEMP_FILE_AGE = 60 * 60 * 1000;
+
+    /**
+     * Složka s kopiemi, které čekají na odeslání.
+     */
+    private final File queueDirectory;
+
+    /**
+     * Složka sdíleného úložiště.
+     */
+    private final File remoteDirectory;
+
+    /**
+     * Vlákno, ve kterém se kopie odesílají.
+     */
+    private final ScheduledExecutorService uploader;
+
+    /**
+     * Odstup příštího opakování odeslání (v ms).
+     */
+    private long retryDelay = INITIAL_RETRY_DELAY;
+
+    /**
+     * Indikátor, že se poslední pokus o odeslání nezdařil a čeká se na jeho opakování.
+     */
+    private volatile boolean unavailable = false;
+
+    /**
+     * Indikátor, že už je odeslání naplánováno (aby se neplánovalo vícekrát).
+     */
+    private boolean scheduled = false;
+
+    /**
+     * Listenery stavu fronty.
+     */
+    private final List<RemoteQueueListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Globální logger chyb
+     */
+    private final static Logger LOGGER = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+
+    /************************************************************************************************
+    Deklarace konstruktorů a továrních metod.
+    ************************************************************************************************/
+
+    /**
+     * Vytvoří frontu a začne odesílat kopie, které ve frontě zůstaly z minulého spuštění aplikace.
+     * @param queueDirectory složka s kopiemi, které čekají na odeslání
+     * @param remoteDirectory složka sdíleného úložiště
+     */
+    RemoteSaveQueue(File queueDirectory, File remoteDirectory){
+        this.queueDirectory = queueDirectory;
+        this.remoteDirectory = remoteDirectory;
+        uploader = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Typon-odesilani-do-sdileneho-uloziste");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        removeUnfinishedCopies();
+        int pending = getPendingCount();
+        if(pending > 0){
+            LOGGER.log(Level.INFO, "Ve frontě čeká na odeslání do sdíleného úložiště "+pending+" kopií dokumentu z minulého spuštění.");
+            schedule(0);
+        }
+    }
+
+    /************************************************************************************************
+    Deklarace veřejných metod.
+    ************************************************************************************************/
+
+    /**
+     * Uloží kopii dokumentu do fronty a požádá o její odeslání.
+     * Pokud je sdílené úložiště právě nedostupné, tak se kopie odešle při příštím opakování.
+     * @param content obsah souboru
+     * @param fileName název souboru ve sdíleném úložišti
+     * @throws IOException Pokud se kopii nepodařilo uložit do fronty.
+     */
+    void enqueue(ByteBuffer content, String fileName) throws IOException{
+        if(!queueDirectory.isDirectory() && !queueDirectory.mkdirs()){
+            throw new IOException("Nelze vytvořit složku "+queueDirectory+" pro kopie čekající na odeslání do sdíleného úložiště.");
+        }
+        FileHandler.writeAtomically(content, new File(queueDirectory, fileName));
+        fireQueueChanged();
+        if(!unavailable){
+            schedule(0);
+        }
+    }
+
+    /**
+     * @return počet kopií, které čekají na odeslání
+     */
+    int getPendingCount(){
+        return getPendingFiles().length;
+    }
+
+    /**
+     * Přidá listener stavu fronty a hned mu oznámí aktuální stav.
+     * @param listener listener stavu fronty
+     */
+    void addListener(final RemoteQueueListener listener){
+        listeners.add(listener);
+        final int pending = getPendingCount();
+        final boolean unavailableNow = unavailable;
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                listener.queueChanged(pending, unavailableNow);
+            }
+        });
+    }
+
+    /************************************************************************************************
+    Deklarace soukromých metod.
+    ************************************************************************************************/
+
+    /**
+     * Naplánuje odeslání všech kopií z fronty (pokud už není naplánováno).
+     * @param delay odstup (v ms)
+     */
+    private synchronized void schedule(long delay){
+        if(scheduled){
+            return;
+        }
+        scheduled = true;
+        uploader.schedule(new Runnable() {
+            @Override
+            public void run() {
+                uploadPending();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Odešle všechny kopie z fronty (od nejstarší). Pokud se odeslání nezdaří, tak naplánuje jeho opakování.
+     * (Běží ve vlákně pro odesílání.)
+     */
+    private void uploadPending(){
+        synchronized(this){
+            scheduled = false;
+        }
+        File[] files = getPendingFiles();
+        for(File file : files){
+            try {
+                ByteBuffer content;
+                try {
+                    content = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+                } catch (NoSuchFileException ex) {
+                    //kopii mezitím odeslala jiná spuštěná instance editoru
+                    continue;
+                }
+                FileHandler.writeAtomically(content, new File(remoteDirectory, file.getName()));
+                Files.deleteIfExists(file.toPath());
+            } catch (IOException ex) {
+                logFailure(file, ex);
+                unavailable = true;
+                fireQueueChanged();
+                schedule(retryDelay);
+                retryDelay = Math.min(retryDelay*2, MAX_RETRY_DELAY);
+                return;
+            }
+        }
+        if(unavailable){
+            LOGGER.log(Level.INFO, "Sdílené úložiště je opět dostupné, všechny čekající kopie byly odeslány.");
+        }
+        unavailable = false;
+        retryDelay = INITIAL_RETRY_DELAY;
+        if(files.length > 0){
+            fireQueueChanged();
+        }
+    }
+
+    /**
+     * Zaloguje nezdařené odeslání. Podrobně se loguje pouze první chyba, opakované chyby jen stručně.
+     * @param file kopie, kterou se nepodařilo odeslat
+     * @param ex chyba
+     */
+    private void logFailure(File file, IOException ex){
+        if(unavailable){
+            LOGGER.log(Level.WARNING, "Kopii "+file.getName()+" se opět nepodařilo odeslat do sdíleného úložiště ("+ex.getMessage()+"). Další pokus za "+retryDelay/1000+" s.");
+        }else if(ex instanceof FileNotFoundException){
+            LOGGER.log(Level.SEVERE, ex.getMessage()+" Je potřeba spustit administrační nástroj a nastavit správně obsah konfiguračního souboru.", ex);
+        }else{
+            LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Oznámí (v EDT) všem listenerům aktuální stav fronty.
+     */
+    private void fireQueueChanged(){
+        final int pending = getPendingCount();
+        final boolean unavailableNow = unavailable;
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                for(RemoteQueueListener listener : listeners){
+                    listener.queueChanged(pending, unavailableNow);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return kopie, které čekají na odeslání (od nejstarší)
+     */
+    private File[] getPendingFiles(){
+        File[] files = queueDirectory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && !file.getName().startsWith(".");
+            }
+        });
+        if(files == null){
+            return new File[0];
+        }
+        //názvy kopií začínají datem a časem uložení
+        Arrays.sort(files);
+        return files;
+    }
+
+    /**
+     * Smaže rozepsané dočasné soubory, které ve frontě zůstaly po pádu aplikace.
+     * Mladší dočasné soubory se ponechají, protože je může právě zapisovat jiná spuštěná instance editoru.
+     */
+    private void removeUnfinishedCopies(){
+        final long staleBefore = System.currentTimeMillis()-STALE_TEMP_FILE_AGE;
+        File[] files = queueDirectory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().startsWith(".") && file.lastModified() < staleBefore;
+            }
+        });
+        if(files != null){
+            for(File file : files){
+                if(!file.delete() && file.exists()){
+                    LOGGER.log(Level.WARNING, "Nelze smazat dočasný soubor "+file+".");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,32 @@
+//==============================================================================
+// Copyright Jan Brzobohatý 2015.
+// Distributed under the MIT License.
+// (See accompanying file LICENSE or copy at http://opensource.org/licenses/MIT)
+//==============================================================================
+
+package model;
+
+/**
+ * Listener průběhu ukládání dokumentu na pozadí.
+ * Všechny metody jsou volány ve vlákně pro obsluhu událostí (EDT).
+ * @author Jan Brzobohatý
+ */
+public interface SaveListener {
+
+    /**
+     * Ukládání bylo zahájeno.
+     */
+    public void saveStarted();
+
+    /**
+     * Ukládání přešlo do další fáze.
+     * @param description popis právě probíhající fáze ukládání
+     */
+    public void saveProgress(String description);
+
+    /**
+     * Ukládání bylo dokončeno.
+     * @param error chyba, která nastala při lokálním uložení (null, pokud bylo uložení úspěšné)
+     */
+    public void saveFinished(Exception error);
+}
@@ -0,0 +1,332 @@
+//==============================================================================
+// Copyright Jan Brzobohatý 2015.
+// Distributed under the MIT License.
+// (See accompanying file LICENSE or copy at http://opensource.org/licenses/MIT)
+//==============================================================================
+
+package model;
+
+import java.awt.Component;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.swing.Icon;
+import javax.swing.ImageIcon;
+
+/**
+ * Třída představuje obrázek v dokumentu, který si kromě dekódovaného obrázku pamatuje i jeho původní zakódovanou podobu
+ * (např. JPEG nebo PNG), aby se při ukládání nemusel znovu kódovat a soubor se zbytečně nezvětšoval.
+ * Obrázek přečtený ze souboru se dekóduje až při prvním použití, do té doby jsou známé pouze jeho rozměry.
+ * @author Jan Brzobohatý
+ */
+public class StoredImageIcon extends ImageIcon{
+    /************************************************************************************************
+    Deklarace proměnných a konstant.
+    ************************************************************************************************/
+
+    /**
+     * Formát, ve kterém se ukládají obrázky bez původní zakódované podoby.
+     */
+    private static final String DEFAULT_FORMAT = "png";
+
+    /**
+     * Již zakódované obrázky, které svou původní zakódovanou podobu neměly. 
+     * (Aby se při každém uložení nekódovaly znovu.)
+     */
+    private static final Map<Icon, StoredImageIcon> ENCODED_ICONS = new WeakHashMap<>();
+
+    /**
+     * Obrázek v původním zakódovaném tvaru.
+     */
+    private final byte[] encoded;
+
+    /**
+     * Formát zakódovaného obrázku (např. "jpeg" nebo "png").
+     */
+    private final String format;
+
+    /**
+     * Otisk (SHA-256) zakódovaného obrázku (spočítá se až při prvním použití).
+     */
+    private String contentHash;
+
+    /**
+     * Dekódovaný obrázek (null, dokud není poprvé potřeba).
+     */
+    private Image decoded;
+
+    /**
+     * Rozměry obrázku (známé i bez jeho dekódování).
+     */
+    private final int width;
+    private final int height;
+
+    /**
+     * Globální logger chyb
+     */
+    private final static Logger LOGGER = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+
+    /************************************************************************************************
+    Deklarace konstruktorů a továrních metod.
+    ************************************************************************************************/
+
+    /**
+     * @param image dekódovaný obrázek
+     * @param encoded obrázek v původním zakódovaném tvaru
+     * @param format formát zakódovaného obrázku
+     */
+    public StoredImageIcon(Image image, byte[] encoded, String format) {
+        super(image);
+        this.encoded = encoded;
+        this.format = format;
+        this.decoded = image;
+        this.width = super.getIconWidth();
+        this.height = super.getIconHeight();
+    }
+
+    /**
+     * Vytvoří obrázek, který se dekóduje až při prvním použití.
+     * @param encoded obrázek v původním zakódovaném tvaru
+     * @param format formát zakódovaného obrázku
+     * @param width šířka obrázku
+     * @param height výška obrázku
+     */
+    private StoredImageIcon(byte[] encoded, String format, int width, int height) {
+        super();
+        this.encoded = encoded;
+        this.format = format;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Přečte z hlavičky zakódovaného obrázku jeho formát a rozměry, ale samotný obrázek zatím nedekóduje.
+     * Dekóduje se až ve chvíli, kdy je poprvé potřeba (např. při prvním vykreslení).
+     * @param encoded zakódovaný obrázek
+     * @return obrázek
+     * @throws IOException Pokud obrázek není v žádném známém formátu.
+     */
+    public static StoredImageIcon read(byte[] encoded) throws IOException{
+        try(ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(encoded))){
+            ImageReader reader = getReader(input);
+            try{
+                reader.setInput(input, true, true);
+                return new StoredImageIcon(encoded, reader.getFormatName().toLowerCase(Locale.ROOT), reader.getWidth(0), reader.getHeight(0));
+            }finally{
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Dekóduje obrázek a ponechá si i jeho původní zakódovanou podobu.
+     * @param encoded zakódovaný obrázek
+     * @return obrázek
+     * @throws IOException Pokud obrázek nelze dekódovat.
+     */
+    public static StoredImageIcon decode(byte[] encoded) throws IOException{
+        try(ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(encoded))){
+            ImageReader reader = getReader(input);
+            try{
+                reader.setInput(input, true, true);
+                BufferedImage image = reader.read(0);
+                return new StoredImageIcon(image, encoded, reader.getFormatName().toLowerCase(Locale.ROOT));
+            }finally{
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Dekóduje obrázek.
+     * @param encoded zakódovaný obrázek
+     * @return dekódovaný obrázek
+     * @throws IOException Pokud obrázek nelze dekódovat.
+     */
+    static BufferedImage decodeImage(byte[] encoded) throws IOException{
+        try(ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(encoded))){
+            ImageReader reader = getReader(input);
+            try{
+                reader.setInput(input, true, true);
+                return reader.read(0);
+            }finally{
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Převede libovolný obrázek na obrázek se zakódovanou podobou.
+     * Pokud obrázek svou původní podobu nemá (např. byl vložen ze schránky nebo zvětšen), tak se zakóduje do PNG.
+     * @param icon obrázek
+     * @return obrázek se zakódovanou podobou
+     * @throws IOException Pokud obrázek nelze zakódovat.
+     */
+    public static StoredImageIcon of(Icon icon) throws IOException{
+        if(icon instanceof StoredImageIcon){
+            return (StoredImageIcon) icon;
+        }
+        synchronized(ENCODED_ICONS){
+            StoredImageIcon stored = ENCODED_ICONS.get(icon);
+            if(stored != null){
+                return stored;
+            }
+        }
+        Image image = ((ImageIcon) icon).getImage();
+        BufferedImage bufferedImage;
+        if(image instanceof BufferedImage){
+            bufferedImage = (BufferedImage) image;
+        }else{
+            bufferedImage = new BufferedImage(icon.getIconWidth(), icon.getIconHeight(), BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = bufferedImage.createGraphics();
+            g.drawImage(image, 0, 0, null);
+            g.dispose();
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageIO.write(bufferedImage, DEFAULT_FORMAT, output);
+        StoredImageIcon stored = new StoredImageIcon(image, output.toByteArray(), DEFAULT_FORMAT);
+        synchronized(ENCODED_ICONS){
+            ENCODED_ICONS.put(icon, stored);
+        }
+        return stored;
+    }
+
+    /**
+     * Najde dekodér pro formát zakódovaného obrázku.
+     * @param input zakódovaný obrázek
+     * @return dekodér
+     * @throws IOException Pokud obrázek není v žádném známém formátu.
+     */
+    private static ImageReader getReader(ImageInputStream input) throws IOException{
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if(!readers.hasNext()){
+            throw new IOException("Neznámý formát obrázku.");
+        }
+        return readers.next();
+    }
+
+    /************************************************************************************************
+    Deklarace veřejných metod.
+    ************************************************************************************************/
+
+    /**
+     * @return dekódovaný obrázek (pokud ještě nebyl dekódován, tak se dekóduje teď)
+     */
+    @Override
+    public synchronized Image getImage() {
+        if(decoded == null){
+            try {
+                decoded = decodeImage(encoded);
+            } catch (IOException ex) {
+                LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
+                setUndecodable();
+            }
+        }
+        return decoded;
+    }
+
+    /**
+     * Dekóduje obrázek na pozadí (pokud ještě není dekódován).
+     * @param onDecoded akce, která se provede v EDT po dekódování obrázku
+     */
+    public void decodeInBackground(Runnable onDecoded){
+        ImageDecoder.getImageDecoder().decode(this, onDecoded);
+    }
+
+    /**
+     * @param image obrázek dekódovaný na pozadí
+     */
+    synchronized void setDecoded(Image image) {
+        if(decoded == null){
+            decoded = image;
+        }
+    }
+
+    /**
+     * Nahradí obrázek, který nelze dekódovat, prázdným obrázkem stejných rozměrů.
+     */
+    synchronized void setUndecodable() {
+        if(decoded == null){
+            decoded = new BufferedImage(Math.max(width, 1), Math.max(height, 1), BufferedImage.TYPE_INT_ARGB);
+        }
+    }
+
+    /**
+     * @return zda už byl obrázek dekódován
+     */
+    public synchronized boolean isDecoded() {
+        return decoded != null;
+    }
+
+    @Override
+    public int getIconWidth() {
+        return width;
+    }
+
+    @Override
+    public int getIconHeight() {
+        return height;
+    }
+
+    @Override
+    public synchronized void paintIcon(Component c, Graphics g, int x, int y) {
+        g.drawImage(getImage(), x, y, c);
+    }
+
+    /**
+     * @return obrázek v původním zakódovaném tvaru (nesmí se měnit)
+     */
+    public byte[] getEncoded() {
+        return encoded;
+    }
+
+    /**
+     * @return formát zakódovaného obrázku (např. "jpeg" nebo "png")
+     */
+    public String getFormat() {
+        return format;
+    }
+
+    /**
+     * Otisk obsahu obrázku. Stejné obrázky (např. opakovaně vložený stejný obrázek) mají stejný otisk.
+     * @return otisk (SHA-256) zakódovaného obrázku
+     */
+    public synchronized String getContentHash() {
+        if(contentHash == null){
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-256").digest(encoded);
+                StringBuilder hash = new StringBuilder(digest.length*2);
+                for(byte b : digest){
+                    hash.append(String.format("%02x", b));
+                }
+                contentHash = hash.toString();
+            } catch (NoSuchAlgorithmException ex) {
+                //SHA-256 musí podporovat každá implementace Javy
+                throw new IllegalStateException(ex);
+            }
+        }
+        return contentHash;
+    }
+
+    /**
+     * @return přípona souboru odpovídající formátu obrázku
+     */
+    public String getFileExtension() {
+        return format.equals("jpeg") ? "jpg" : format;
+    }
+}
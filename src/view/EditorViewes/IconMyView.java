@@ -7,24 +7,20 @@
 package view.EditorViewes;
 
 import java.awt.Color;
-import java.awt.GradientPaint;
+import java.awt.Container;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Image;
-import java.awt.Paint;
-import java.awt.RadialGradientPaint;
 import java.awt.Rectangle;
-import java.awt.RenderingHints;
 import java.awt.Shape;
-import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Future;
 import javax.swing.ImageIcon;
 import javax.swing.SwingConstants;
+import javax.swing.event.DocumentEvent;
 import javax.swing.text.AttributeSet;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.Element;
@@ -32,7 +28,9 @@ import javax.swing.text.ParagraphView;
 import javax.swing.text.Position;
 import javax.swing.text.StyleConstants;
 import javax.swing.text.View;
-import net.coobird.thumbnailator.Thumbnails;
+import javax.swing.text.ViewFactory;
+import model.ImageAttributes;
+import model.StoredImageIcon;
 
 /**
  * Třída představuje view pro obrázek.
@@ -44,11 +42,6 @@ public class IconMyView extends ParagraphView{
     public static final int MAX_WIDTH = 660;
     public static final int MAX_HIGHT = 900;
 
-    /**
-     * Globální logger chyb
-     */
-    private final static Logger LOGGER = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
-    
     /**
      * Hranice obrázku i s rámečkem.
      */
@@ -65,9 +58,21 @@ public class IconMyView extends ParagraphView{
     private boolean focus = false;
 
     /**
-     * List všech view obrázků v editoru.
+     * Živá view obrázků v editoru podle jejich elementů.
+     * Element z dokumentu odstraněného obrázku (i s jeho view) se může uvolnit z paměti.
+     * View se odkazuje na svůj element, proto je drženo pouze slabým odkazem.
+     */
+    private static final Map<Element, WeakReference<IconMyView>> VIEWS = new WeakHashMap<>();
+
+    /**
+     * Obrázky zmenšené na velikost stránky (nebo na rozměry z atributů) podle obrázků z dokumentu.
      */
-    private static final ArrayList<IconMyView> listOfInstants = new ArrayList();
+    private static final Map<BufferedImage, BufferedImage> FITTED_IMAGES = new WeakHashMap<>();
+
+    /**
+     * Barva místa pro obrázek, který se ještě dekóduje.
+     */
+    private static final Color PLACEHOLDER_COLOR = new Color(245, 245, 245);
 
     /**
      * Originální obrázek v původních rozměrech.
@@ -100,19 +105,35 @@ public class IconMyView extends ParagraphView{
     private static IconMyView currentImage = null;
 
     /**
-     * Obrázek v editoru
+     * Obrázek z dokumentu (může být dosud nedekódovaný).
+     */
+    private final ImageIcon icon;
+
+    /**
+     * Obrázek v editoru (null, dokud se poprvé nevykreslí).
      */
     private BufferedImage image;
 
     /**
-     * Šířka obrázku.
+     * Kvalitní zmenšování obrázku na pozadí (null, pokud neprobíhá).
      */
-    private final int width;
+    private Future<BufferedImage> scaling;
 
     /**
-     * Výška obrázku.
+     * Rozměry obrázku v editoru (známé i před dekódováním obrázku).
      */
-    private final int height;
+    private int imageWidth;
+    private int imageHeight;
+
+    /**
+     * Šířka obrázku (původní nebo ta, na kterou byl obrázek zvětšen či zmenšen).
+     */
+    private int width;
+
+    /**
+     * Výška obrázku (původní nebo ta, na kterou byl obrázek zvětšen či zmenšen).
+     */
+    private int height;
 
     /**
      * @return Šířku obrázku
@@ -161,20 +182,15 @@ public class IconMyView extends ParagraphView{
      * @return originální obrázek 
      */
     public BufferedImage getOriginal(){
+        loadImage();
         return original;
     }
 
-    /**
-     * @param original originální obrázek
-     */
-    public void setOriginal(BufferedImage original){
-        this.original = original;
-    }
-
     /**
      * @return obrázek
      */
     public Image getImage(){
+        loadImage();
         return image;
     }
 
@@ -185,28 +201,12 @@ public class IconMyView extends ParagraphView{
         this.selected = selected;
     }
 
-    /**
-     * Nastaví novou velikost obrázku.
-     * @param w nová šířka
-     * @param h nová výška
-     * @param keepAspectRatio zachovat poměr stran 
-     */
-    public void setSize(int w, int h, boolean keepAspectRatio){
-        try {
-            image = Thumbnails.of(original).size(w,h).keepAspectRatio(keepAspectRatio).asBufferedImage();
-        } catch (IOException ex) {
-            LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
-        }
-    }
-
     /**
      * Odstraní focus ze všech obrázků v dokumentu.
      */
     public static void clearAllFocus(){
-        Iterator iterator = listOfInstants.iterator();
-        IconMyView view;
-        while(iterator.hasNext()){
-            view = (IconMyView)iterator.next();
+        for(WeakReference<IconMyView> reference : VIEWS.values()){
+            IconMyView view = reference.get();
             if(view!=null){
                 view.setFocus(false);
             }
@@ -217,16 +217,24 @@ public class IconMyView extends ParagraphView{
      * Odstraní zobrazení selekce ze všech obrázků v dokumentu.
      */
     public static void clearAllSelection(){
-        Iterator iterator = listOfInstants.iterator();
-        IconMyView view;
-        while(iterator.hasNext()){
-            view = (IconMyView)iterator.next();
+        for(WeakReference<IconMyView> reference : VIEWS.values()){
+            IconMyView view = reference.get();
             if(view!=null){
                 view.setSelected(false);
             }
         }
     }
 
+    /**
+     * Najde živé view obrázku v editoru.
+     * @param element element obrázku
+     * @return view obrázku (null, pokud pro element žádné view není)
+     */
+    public static IconMyView getView(Element element){
+        WeakReference<IconMyView> reference = VIEWS.get(element);
+        return reference == null ? null : reference.get();
+    }
+
     /**
     * Creates a new icon view that represents an element.
     *
@@ -235,24 +243,66 @@ public class IconMyView extends ParagraphView{
    public IconMyView(Element elem) {
        super(elem);
        AttributeSet attr = elem.getAttributes();
-       ImageIcon imager = (ImageIcon) StyleConstants.getIcon(attr);
-       image = toBufferedImage(imager.getImage());
-       original = image;
-       height = image.getHeight();
-       width = image.getWidth();
-
-       //V případě, že má obrázek větší rozměry než stránka, tak zmenšit.
-       if(width>MAX_WIDTH){
-           setSize(MAX_WIDTH, height, true);
-       }
-       if(height>MAX_HIGHT){
-           setSize(width, MAX_HIGHT, true);
-       }
-       listOfInstants.add(this);
+       icon = (ImageIcon) StyleConstants.getIcon(attr);
+       readSize(attr);
+       VIEWS.put(elem, new WeakReference<>(this));
    }
 
    // --- View methods ---------------------------------------------
 
+    /**
+     * Při odebrání view z editoru (např. při smazání obrázku nebo novém rozložení) 
+     * se view odebere ze seznamu živých view a uvolní se jeho obrázky.
+     * @param parent nadřazené view (null při odebrání view)
+     */
+    @Override
+    public void setParent(View parent) {
+        super.setParent(parent);
+        if(parent == null){
+            if(getView(getElement()) == this){
+                VIEWS.remove(getElement());
+            }
+            ImageBoundsIndex.getImageBoundsIndex().remove(this);
+            cancelScaling();
+            image = null;
+            original = null;
+        }
+    }
+
+    /**
+     * Při změně rozměrů obrázku v atributech (zvětšení, zmenšení nebo jeho vrácení) 
+     * se obrázek znovu zmenší a přepočítá se rozložení tohoto view.
+     * @param e událost změny dokumentu
+     * @param a oblast view
+     * @param f továrna na view
+     */
+    @Override
+    public void changedUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+        super.changedUpdate(e, a, f);
+        ImageBoundsIndex.getImageBoundsIndex().remove(this);
+        int oldWidth = imageWidth;
+        int oldHeight = imageHeight;
+        readSize(getElement().getAttributes());
+        if(oldWidth != imageWidth || oldHeight != imageHeight){
+            cancelScaling();
+            image = null;
+            preferenceChanged(null, true, true);
+        }
+    }
+
+    /**
+     * Při změně požadované velikosti view se obrázek odebere z indexu hranic obrázků 
+     * (jeho hranice už neodpovídají rozložení dokumentu a zapíšou se znovu při dalším vykreslení).
+     * @param child view, jehož požadovaná velikost se změnila (null, pokud jde o toto view)
+     * @param width zda se změnila požadovaná šířka
+     * @param height zda se změnila požadovaná výška
+     */
+    @Override
+    public void preferenceChanged(View child, boolean width, boolean height) {
+        ImageBoundsIndex.getImageBoundsIndex().remove(this);
+        super.preferenceChanged(child, width, height);
+    }
+
    /**
     * Paints the icon.
     * The real paint behavior occurs naturally from the association
@@ -268,6 +318,11 @@ public class IconMyView extends ParagraphView{
     */
     @Override
     public void paint(Graphics g, Shape a) {
+        if(image == null && icon instanceof StoredImageIcon && !((StoredImageIcon) icon).isDecoded()){
+            paintPlaceholder(g, a);
+            return;
+        }
+        loadImage();
         int x = a.getBounds().x;//+(dist/2);
         int y = a.getBounds().y+(dist/2);
 
@@ -276,6 +331,7 @@ public class IconMyView extends ParagraphView{
         }
 
         bounds = new Rectangle(x-(dist/2),y-(dist/2),image.getWidth()+(dist),image.getHeight()+(dist));
+        ImageBoundsIndex.getImageBoundsIndex().update(this, bounds);
         g.drawImage(image, x, y, image.getWidth(), image.getHeight(), null);
         
         if(focus){
@@ -312,7 +368,7 @@ public class IconMyView extends ParagraphView{
         case View.X_AXIS:
             return MAX_WIDTH;
         case View.Y_AXIS:
-            return image.getHeight()+dist;
+            return imageHeight+dist;
         default:
             throw new IllegalArgumentException("Invalid axis: " + axis);
         }
@@ -363,7 +419,7 @@ public class IconMyView extends ParagraphView{
                 if (pos == p1) {
                     r.x += r.width;
                 }
-                r.width = image.getWidth();
+                r.width = imageWidth;
                 return r;
             }
             return bounds;
@@ -425,6 +481,134 @@ public class IconMyView extends ParagraphView{
         return null;
     }
     
+    /**
+     * Vykreslí místo obrázku, který se ještě dekóduje na pozadí, prázdný rámeček
+     * a po dekódování obrázku nechá překreslit jeho místo v dokumentu.
+     * @param g grafika
+     * @param a oblast pro vykreslení
+     */
+    private void paintPlaceholder(Graphics g, Shape a){
+        int x = a.getBounds().x;
+        int y = a.getBounds().y+(dist/2);
+        if(justification != StyleConstants.ALIGN_LEFT){
+            x += (MAX_WIDTH/2)-(imageWidth/2);
+        }
+        bounds = new Rectangle(x-(dist/2),y-(dist/2),imageWidth+(dist),imageHeight+(dist));
+        ImageBoundsIndex.getImageBoundsIndex().update(this, bounds);
+        g.setColor(PLACEHOLDER_COLOR);
+        g.fillRect(x, y, imageWidth, imageHeight);
+        g.setColor(Color.LIGHT_GRAY);
+        g.drawRect(x, y, imageWidth-1, imageHeight-1);
+
+        final Rectangle dirty = new Rectangle(bounds);
+        ((StoredImageIcon) icon).decodeInBackground(new Runnable() {
+            @Override
+            public void run() {
+                Container container = getContainer();
+                if(container != null){
+                    container.repaint(dirty.x, dirty.y, dirty.width, dirty.height);
+                }
+            }
+        });
+    }
+
+    /**
+     * Přečte z atributů rozměry obrázku (pokud byl zvětšen či zmenšen, jinak se použijí jeho původní rozměry).
+     * Rozměry jsou známé i bez dekódování obrázku, takže se obrázek dekóduje až při prvním vykreslení.
+     * V případě, že má obrázek větší rozměry než stránka, tak se zmenší.
+     * @param attr atributy obrázku
+     */
+    private void readSize(AttributeSet attr){
+        width = ImageAttributes.getWidth(attr);
+        height = ImageAttributes.getHeight(attr);
+        if(width <= 0 || height <= 0){
+            width = icon.getIconWidth();
+            height = icon.getIconHeight();
+        }
+        imageWidth = width;
+        imageHeight = height;
+
+        if(width>MAX_WIDTH || height>MAX_HIGHT){
+            double scale = 1;
+            if(width>MAX_WIDTH){
+                scale = (double) MAX_WIDTH/width;
+            }
+            if(height>MAX_HIGHT){
+                scale = (double) MAX_HIGHT/height;
+            }
+            imageWidth = Math.max(1, (int) Math.round(width*scale));
+            imageHeight = Math.max(1, (int) Math.round(height*scale));
+        }
+    }
+
+    /**
+     * Dekóduje obrázek (pokud ještě není dekódován) a případně ho zmenší na velikost stránky.
+     * (Kvalitně zmenšený obrázek sdílí všechny výskyty stejného obrázku v dokumentu.)
+     */
+    private void loadImage(){
+        if(image != null){
+            return;
+        }
+        BufferedImage source = toBufferedImage(icon.getImage());
+        if(original == null){
+            original = source;
+        }
+        if(imageWidth == source.getWidth() && imageHeight == source.getHeight()){
+            image = source;
+            return;
+        }
+        BufferedImage fitted = FITTED_IMAGES.get(source);
+        if(fitted != null && fitted.getWidth() == imageWidth && fitted.getHeight() == imageHeight){
+            image = fitted;
+            return;
+        }
+        //kvalitní zmenšení velkého obrázku trvá dlouho, takže se do jeho dokončení zobrazí rychlé zmenšení
+        image = ImageScaler.scaleFast(source, imageWidth, imageHeight);
+        scaleInBackground(source);
+    }
+
+    /**
+     * Nechá obrázek kvalitně zmenšit na pozadí a po dokončení ho nahradí a překreslí.
+     * Předchozí dosud nedokončené zmenšení tohoto obrázku se zruší.
+     * @param source původní obrázek
+     */
+    private void scaleInBackground(final BufferedImage source){
+        cancelScaling();
+        final int w = imageWidth;
+        final int h = imageHeight;
+        scaling = ImageScaler.getImageScaler().scale(source, w, h, new ImageScaler.ScaleListener() {
+            @Override
+            public void imageScaled(Future<BufferedImage> task, BufferedImage scaled) {
+                FITTED_IMAGES.put(source, scaled);
+                //zmenšení mohlo být mezitím zrušeno nebo nahrazeno novějším (už nedokončené zmenšení nejde zrušit)
+                if(task != scaling){
+                    return;
+                }
+                scaling = null;
+                //obrázek mohl být mezitím znovu zvětšen či zmenšen
+                if(image == null || imageWidth != w || imageHeight != h){
+                    return;
+                }
+                image = scaled;
+                Container container = getContainer();
+                //obrázek, který ještě nebyl vykreslen, se vykreslí už kvalitně zmenšený
+                if(container != null && bounds != null && !bounds.isEmpty()){
+                    container.repaint(bounds.x, bounds.y, bounds.width, bounds.height);
+                }
+            }
+        });
+    }
+
+    /**
+     * Zruší dosud nedokončené kvalitní zmenšení obrázku.
+     */
+    private void cancelScaling(){
+        if(scaling != null){
+            scaling.cancel(true);
+            scaling = null;
+        }
+    }
+    
     /**
     * Converts a given Image into a BufferedImage
     *
@@ -468,53 +652,9 @@ public class IconMyView extends ParagraphView{
         g.setColor(Color.black);
         g.drawRect(bounds.x + dist / 2, bounds.y + dist / 2, bounds.width - dist, bounds.height - dist);
         
-        Graphics2D g2 = (Graphics2D) g;
-        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        
-        // Retains the previous state
-        Paint oldPaint = g2.getPaint();
-        
-        //úchyty obrázku
+        //úchyty obrázku (předem vykreslené)
         for (int i = 0; i < locations.length; i++) {
-            Rectangle rect = getRectangle(locations[i]);
-            
-            // Fills the circle with solid blue color
-            //g2.setColor(new Color(0x0153CC));
-            g2.setColor(new Color(255,200,0));
-            g2.fillOval(rect.x, rect.y, rect.width - 1, rect.height - 1);
-
-            // Adds shadows at the top
-            Paint p;
-            p = new GradientPaint(rect.x, rect.y, new Color(0.0f, 0.0f, 0.0f, 0.4f), rect.x, rect.y+rect.height, new Color(0.0f, 0.0f, 0.0f, 0.0f));
-            g2.setPaint(p);
-            g2.fillOval(rect.x, rect.y, rect.width - 1, rect.height - 1);
-
-            // Adds highlights at the bottom 
-            p = new GradientPaint(rect.x, rect.y, new Color(1.0f, 1.0f, 1.0f, 0.0f), rect.x, rect.y+rect.height, new Color(1.0f, 1.0f, 1.0f, 0.4f));
-            g2.setPaint(p);
-            g2.fillOval(rect.x, rect.y, rect.width - 1, rect.height - 1);
-
-            // Creates dark edges for 3D effect
-            p = new RadialGradientPaint(new Point2D.Double(rect.x+rect.width / 2.0, rect.y+rect.height / 2.0), 
-                    rect.width / 2.0f,
-                    new float[] { 0.0f, 1.0f },
-                    new Color[] { new Color(255, 128, 0, 127), new Color(0.0f, 0.0f, 0.0f, 0.8f) });
-            g2.setPaint(p);
-            g2.fillOval(rect.x, rect.y, rect.width - 1, rect.height - 1);
-
-            // Adds oval specular highlight at the top left
-            p = new RadialGradientPaint(new Point2D.Double(rect.x+rect.width / 2.0,
-                    rect.y+rect.height / 2.0), rect.width / 1.4f,
-                    new Point2D.Double(rect.x+45.0, rect.y+25.0),
-                    new float[] { 0.0f, 0.5f },
-                    new Color[] { new Color(1.0f, 1.0f, 1.0f, 0.4f),
-                        new Color(1.0f, 1.0f, 1.0f, 0.0f) },
-                    RadialGradientPaint.CycleMethod.NO_CYCLE);
-            g2.setPaint(p);
-            g2.fillOval(rect.x, rect.y, rect.width - 1, rect.height - 1);
+            ResizeHandleSprites.paintHandle((Graphics2D) g, getRectangle(locations[i]));
         }
-        
-        // Restores the previous state
-        g2.setPaint(oldPaint);
     }
 }
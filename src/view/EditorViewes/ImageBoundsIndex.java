@@ -0,0 +1,223 @@
+//==============================================================================
+// Copyright Jan Brzobohatý 2015.
+// Distributed under the MIT License.
+// (See accompanying file LICENSE or copy at http://opensource.org/licenses/MIT)
+//==============================================================================
+
+package view.EditorViewes;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Třída představuje prostorový index hranic obrázků v editoru (seznam seřazený podle svislé souřadnice).
+ * Hranice obrázků se zapisují při jejich vykreslení, takže odpovídají aktuálnímu rozložení dokumentu,
+ * a zjištění obrázku pod kurzorem myši se obejde bez dotazů na model dokumentu.
+ * Obrázek, který se při vykreslení oblasti editoru nevykreslil, už v ní není a z indexu se odebere.
+ * Obrázek, jehož rozložení se změnilo, se z indexu odebere hned (a zapíše se znovu při dalším vykreslení).
+ * Všechny metody se musí volat ve vlákně pro obsluhu událostí (EDT).
+ * @author Jan Brzobohatý
+ */
+public class ImageBoundsIndex {
+    /************************************************************************************************
+    Deklarace statickcých proměnných.
+    ************************************************************************************************/
+
+    /**
+     * Instance této třídy. (Singleton)
+     */
+    private static ImageBoundsIndex imageBoundsIndex;
+
+    /************************************************************************************************
+    Deklarace proměnných a konstant.
+    ************************************************************************************************/
+
+    /**
+     * Záznamy seřazené podle horního okraje obrázku.
+     */
+    private final List<Entry> entries = new ArrayList<>();
+
+    /**
+     * Záznamy podle view obrázků.
+     */
+    private final Map<IconMyView, Entry> entriesByView = new IdentityHashMap<>();
+
+    /**
+     * Největší výška obrázku v indexu (omezuje, jak daleko nad bodem je třeba hledat).
+     */
+    private int maxHeight;
+
+    /**
+     * Právě vykreslovaná oblast editoru (null, pokud se zrovna nevykresluje).
+     */
+    private Rectangle paintedArea;
+
+    /**
+     * Obrázky, které se v právě vykreslované oblasti dosud nevykreslily.
+     */
+    private final List<Entry> unpainted = new ArrayList<>();
+
+    /************************************************************************************************
+    Deklarace konstruktorů a továrních metod.
+    ************************************************************************************************/
+
+    private ImageBoundsIndex(){}
+
+    /**
+     * Tovární metoda. (Singleton)
+     * @return instance třídy ImageBoundsIndex
+     */
+    public static ImageBoundsIndex getImageBoundsIndex(){
+        if(imageBoundsIndex == null){
+            imageBoundsIndex = new ImageBoundsIndex();
+        }
+        return imageBoundsIndex;
+    }
+
+    /************************************************************************************************
+    Deklarace veřejných metod.
+    ************************************************************************************************/
+
+    /**
+     * Najde obrázek, jehož hranice (i s rámečkem pro uchopení) obsahují daný bod.
+     * @param point bod v souřadnicích editoru
+     * @return view obrázku (null, pokud na daném bodě žádný obrázek není)
+     */
+    public IconMyView getImageAt(Point point){
+        for(int i = upperBound(point.y)-1; i >= 0; i--){
+            Entry entry = entries.get(i);
+            if(entry.bounds.y + maxHeight <= point.y){
+                break;
+            }
+            if(entry.bounds.contains(point)){
+                return entry.view;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Začátek vykreslování oblasti editoru.
+     * Zapamatuje si obrázky v této oblasti, aby mohly být po vykreslení odebrány ty, které se nevykreslily.
+     * @param area vykreslovaná oblast editoru
+     */
+    public void beginPaint(Rectangle area){
+        paintedArea = area;
+        unpainted.clear();
+        for(Entry entry : entries){
+            if(entry.bounds.intersects(area)){
+                unpainted.add(entry);
+            }
+        }
+    }
+
+    /**
+     * Konec vykreslování oblasti editoru.
+     * Obrázky, které v ní byly, ale nevykreslily se, se z indexu odeberou (rozložení dokumentu se mezitím změnilo).
+     */
+    public void endPaint(){
+        paintedArea = null;
+        for(Entry entry : unpainted){
+            remove(entry.view);
+        }
+        unpainted.clear();
+    }
+
+    /**
+     * Zapíše hranice vykresleného obrázku.
+     * @param view view obrázku
+     * @param bounds hranice obrázku i s rámečkem pro uchopení
+     */
+    void update(IconMyView view, Rectangle bounds){
+        Entry entry = entriesByView.get(view);
+        int oldHeight = 0;
+        if(entry != null){
+            unpainted.remove(entry);
+            if(entry.bounds.equals(bounds)){
+                return;
+            }
+            entries.remove(entry);
+            oldHeight = entry.bounds.height;
+        }else{
+            entry = new Entry(view);
+            entriesByView.put(view, entry);
+        }
+        entry.bounds = new Rectangle(bounds);
+        entries.add(upperBound(bounds.y), entry);
+        if(bounds.height >= maxHeight){
+            maxHeight = bounds.height;
+        }else if(oldHeight == maxHeight){
+            updateMaxHeight();
+        }
+    }
+
+    /**
+     * Odebere obrázek z indexu.
+     * @param view view obrázku
+     */
+    void remove(IconMyView view){
+        Entry entry = entriesByView.remove(view);
+        if(entry != null){
+            entries.remove(entry);
+            if(paintedArea != null){
+                unpainted.remove(entry);
+            }
+            if(entry.bounds.height == maxHeight){
+                updateMaxHeight();
+            }
+        }
+    }
+
+    /************************************************************************************************
+    Deklarace soukromých metod.
+    ************************************************************************************************/
+
+    /**
+     * Znovu zjistí největší výšku obrázku v indexu. (Po odebrání nebo zmenšení dosud nejvyššího obrázku.)
+     */
+    private void updateMaxHeight(){
+        maxHeight = 0;
+        for(Entry entry : entries){
+            maxHeight = Math.max(maxHeight, entry.bounds.height);
+        }
+    }
+
+    /**
+     * Najde první záznam, jehož horní okraj je pod danou svislou souřadnicí (binární vyhledávání).
+     * @param y svislá souřadnice
+     * @return index záznamu (počet záznamů, pokud takový záznam není)
+     */
+    private int upperBound(int y){
+        int low = 0;
+        int high = entries.size();
+        while(low < high){
+            int middle = (low + high) >>> 1;
+            if(entries.get(middle).bounds.y <= y){
+                low = middle + 1;
+            }else{
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /************************************************************************************************
+    Deklarace soukromých tříd.
+    ************************************************************************************************/
+
+    /**
+     * Záznam hranic jednoho obrázku.
+     */
+    private static class Entry {
+        final IconMyView view;
+        Rectangle bounds;
+
+        Entry(IconMyView view) {
+            this.view = view;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+//==============================================================================
+// Copyright Jan Brzobohatý 2015.
+// Distributed under the MIT License.
+// (See accompanying file LICENSE or copy at http://opensource.org/licenses/MIT)
+//==============================================================================
+
+package view.EditorViewes;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.SwingUtilities;
+import net.coobird.thumbnailator.Thumbnails;
+
+/**
+ * Třída se stará o zmenšování (a zvětšování) obrázků v editoru ve dvou kvalitách.
+ * Rychlé (bilineární) zmenšení se spočítá hned a zobrazí se, dokud se na pozadí nespočítá kvalitní zmenšení (Thumbnailator).
+ * @author Jan Brzobohatý
+ */
+class ImageScaler {
+    /************************************************************************************************
+    Deklarace statickcých proměnných.
+    ************************************************************************************************/
+
+    /**
+     * Instance této třídy. (Singleton)
+     */
+    private static ImageScaler imageScaler;
+
+    /************************************************************************************************
+    Deklarace proměnných a konstant.
+    ************************************************************************************************/
+
+    /**
+     * Vlákno pro kvalitní zmenšování obrázků.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Globální logger chyb
+     */
+    private final static Logger LOGGER = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+
+    /************************************************************************************************
+    Deklarace konstruktorů a továrních metod.
+    ************************************************************************************************/
+
+    private ImageScaler(){
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Typon-zmensovani-obrazku");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.NORM_PRIORITY-1);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Tovární metoda. (Singleton)
+     * @return instance třídy ImageScaler
+     */
+    static synchronized ImageScaler getImageScaler(){
+        if(imageScaler == null){
+            imageScaler = new ImageScaler();
+        }
+        return imageScaler;
+    }
+
+    /************************************************************************************************
+    Deklarace veřejných metod.
+    ************************************************************************************************/
+
+    /**
+     * Požádá o kvalitní zmenšení obrázku na pozadí.
+     * @param source původní obrázek
+     * @param width nová šířka
+     * @param height nová výška
+     * @param listener listener, kterému se (v EDT) předá zmenšený obrázek, pokud mezitím nebylo zmenšení zrušeno
+     *                 (zmenšení, které už skončilo, ale listener ještě nedostal výsledek, zrušit nejde)
+     * @return zmenšování obrázku (pro jeho zrušení, pokud už výsledek nebude potřeba)
+     */
+    Future<BufferedImage> scale(final BufferedImage source, final int width, final int height, final ScaleListener listener){
+        FutureTask<BufferedImage> task = new FutureTask<BufferedImage>(new Callable<BufferedImage>() {
+            @Override
+            public BufferedImage call() throws Exception {
+                return Thumbnails.of(source).size(width, height).keepAspectRatio(false).asBufferedImage();
+            }
+        }){
+            @Override
+            protected void done() {
+                if(isCancelled()){
+                    return;
+                }
+                final FutureTask<BufferedImage> finished = this;
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(finished.isCancelled()){
+                            return;
+                        }
+                        try {
+                            listener.imageScaled(finished, finished.get());
+                        } catch (InterruptedException | ExecutionException ex) {
+                            LOGGER.log(Level.SEVERE, "Obrázek nelze zmenšit. ("+ex.getMessage()+")", ex);
+                        }
+                    }
+                });
+            }
+        };
+        executor.execute(task);
+        return task;
+    }
+
+    /************************************************************************************************
+    Deklarace statických metod.
+    ************************************************************************************************/
+
+    /**
+     * Rychle (bilineárně) zmenší obrázek. Výsledek je méně kvalitní, ale dá se spočítat hned v EDT.
+     * @param source původní obrázek
+     * @param width nová šířka
+     * @param height nová výška
+     * @return zmenšený obrázek
+     */
+    static BufferedImage scaleFast(BufferedImage source, int width, int height){
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = scaled.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(source, 0, 0, width, height, null);
+        g.dispose();
+        return scaled;
+    }
+
+    /************************************************************************************************
+    Deklarace soukromých tříd.
+    ************************************************************************************************/
+
+    /**
+     * Listener dokončení kvalitního zmenšení obrázku.
+     */
+    interface ScaleListener {
+
+        /**
+         * Kvalitní zmenšení obrázku je hotové. (Volá se v EDT.)
+         * @param task zmenšování obrázku, které bylo vráceno při žádosti o zmenšení
+         * @param image zmenšený obrázek
+         */
+        void imageScaled(Future<BufferedImage> task, BufferedImage image);
+    }
+}
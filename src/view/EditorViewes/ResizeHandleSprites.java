@@ -0,0 +1,135 @@
+//==============================================================================
+// Copyright Jan Brzobohatý 2015.
+// Distributed under the MIT License.
+// (See accompanying file LICENSE or copy at http://opensource.org/licenses/MIT)
+//==============================================================================
+
+package view.EditorViewes;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.RadialGradientPaint;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.HashMap;
+import java.util.Map;
+import javax.swing.UIManager;
+
+/**
+ * Třída se stará o vykreslování čtverečků pro uchopení na okraji obrázku (u obrázku v editoru i u jeho zvětšovatelného náhledu).
+ * Čtvereček se pro každou velikost (a měřítko obrazovky) vykreslí jen jednou do obrázku kompatibilního s obrazovkou
+ * a dál se už jen kopíruje. Vykreslené čtverečky se zahodí při změně vzhledu aplikace (Look and Feel).
+ * Všechny metody se musí volat ve vlákně pro obsluhu událostí (EDT).
+ * @author Jan Brzobohatý
+ */
+public class ResizeHandleSprites {
+    /************************************************************************************************
+    Deklarace statickcých proměnných.
+    ************************************************************************************************/
+
+    /**
+     * Vykreslené čtverečky podle velikosti a měřítka obrazovky.
+     */
+    private static final Map<String, BufferedImage> SPRITES = new HashMap<>();
+
+    static {
+        UIManager.addPropertyChangeListener(new PropertyChangeListener() {
+            @Override
+            public void propertyChange(PropertyChangeEvent evt) {
+                if("lookAndFeel".equals(evt.getPropertyName())){
+                    SPRITES.clear();
+                }
+            }
+        });
+    }
+
+    /************************************************************************************************
+    Deklarace konstruktorů a továrních metod.
+    ************************************************************************************************/
+
+    private ResizeHandleSprites(){}
+
+    /************************************************************************************************
+    Deklarace statických metod.
+    ************************************************************************************************/
+
+    /**
+     * Vykreslí čtvereček pro uchopení.
+     * @param g grafika
+     * @param rect umístění a velikost čtverečku
+     */
+    public static void paintHandle(Graphics2D g, Rectangle rect){
+        AffineTransform transform = g.getTransform();
+        double scaleX = Math.abs(transform.getScaleX());
+        double scaleY = Math.abs(transform.getScaleY());
+        String key = rect.width+"x"+rect.height+"@"+scaleX+"x"+scaleY;
+        BufferedImage sprite = SPRITES.get(key);
+        if(sprite == null){
+            sprite = createSprite(g.getDeviceConfiguration(), rect.width, rect.height, scaleX, scaleY);
+            SPRITES.put(key, sprite);
+        }
+        g.drawImage(sprite, rect.x, rect.y, rect.width, rect.height, null);
+    }
+
+    /**
+     * Vykreslí čtvereček pro uchopení do obrázku kompatibilního s obrazovkou.
+     * @param configuration konfigurace obrazovky
+     * @param width šířka čtverečku
+     * @param height výška čtverečku
+     * @param scaleX vodorovné měřítko obrazovky
+     * @param scaleY svislé měřítko obrazovky
+     * @return obrázek čtverečku
+     */
+    private static BufferedImage createSprite(GraphicsConfiguration configuration, int width, int height, double scaleX, double scaleY){
+        int spriteWidth = Math.max(1, (int) Math.ceil(width*scaleX));
+        int spriteHeight = Math.max(1, (int) Math.ceil(height*scaleY));
+        BufferedImage sprite = configuration != null
+                ? configuration.createCompatibleImage(spriteWidth, spriteHeight, Transparency.TRANSLUCENT)
+                : new BufferedImage(spriteWidth, spriteHeight, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2 = sprite.createGraphics();
+        g2.scale((double) spriteWidth/width, (double) spriteHeight/height);
+        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        Rectangle rect = new Rectangle(0, 0, width, height);
+
+        // Fills the circle with solid blue color
+        //g2.setColor(new Color(0x0153CC));
+        g2.setColor(new Color(255,200,0));
+        g2.fillOval(rect.x, rect.y, rect.width - 1, rect.height - 1);
+
+        // Adds shadows at the top
+        g2.setPaint(new GradientPaint(rect.x, rect.y, new Color(0.0f, 0.0f, 0.0f, 0.4f), rect.x, rect.y+rect.height, new Color(0.0f, 0.0f, 0.0f, 0.0f)));
+        g2.fillOval(rect.x, rect.y, rect.width - 1, rect.height - 1);
+
+        // Adds highlights at the bottom
+        g2.setPaint(new GradientPaint(rect.x, rect.y, new Color(1.0f, 1.0f, 1.0f, 0.0f), rect.x, rect.y+rect.height, new Color(1.0f, 1.0f, 1.0f, 0.4f)));
+        g2.fillOval(rect.x, rect.y, rect.width - 1, rect.height - 1);
+
+        // Creates dark edges for 3D effect
+        g2.setPaint(new RadialGradientPaint(new Point2D.Double(rect.x+rect.width / 2.0, rect.y+rect.height / 2.0),
+                rect.width / 2.0f,
+                new float[] { 0.0f, 1.0f },
+                new Color[] { new Color(255, 128, 0, 127), new Color(0.0f, 0.0f, 0.0f, 0.8f) }));
+        g2.fillOval(rect.x, rect.y, rect.width - 1, rect.height - 1);
+
+        // Adds oval specular highlight at the top left
+        g2.setPaint(new RadialGradientPaint(new Point2D.Double(rect.x+rect.width / 2.0,
+                rect.y+rect.height / 2.0), rect.width / 1.4f,
+                new Point2D.Double(rect.x+45.0, rect.y+25.0),
+                new float[] { 0.0f, 0.5f },
+                new Color[] { new Color(1.0f, 1.0f, 1.0f, 0.4f),
+                    new Color(1.0f, 1.0f, 1.0f, 0.0f) },
+                RadialGradientPaint.CycleMethod.NO_CYCLE));
+        g2.fillOval(rect.x, rect.y, rect.width - 1, rect.height - 1);
+
+        g2.dispose();
+        return sprite;
+    }
+}
@@ -0,0 +1,122 @@
+//==============================================================================
+// Copyright Jan Brzobohatý 2015.
+// Distributed under the MIT License.
+// (See accompanying file LICENSE or copy at http://opensource.org/licenses/MIT)
+//==============================================================================
+
+package view;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Třída představuje pyramidu zmenšenin obrázku (každá úroveň má poloviční rozměry předchozí úrovně).
+ * Úrovně se vytváří až ve chvíli, kdy jsou poprvé potřeba.
+ * Při vykreslování obrázku v libovolné velikosti se kreslí z nejbližší větší úrovně,
+ * takže cena vykreslení nezávisí na rozlišení původního obrázku.
+ * Pyramida drží původní obrázek jen slabou referencí, takže pyramida i se zmenšeninami zanikne spolu s původním obrázkem
+ * (tj. až ho přestane držet view obrázku v editoru).
+ * @author Jan Brzobohatý
+ */
+class ImagePyramid {
+    /************************************************************************************************
+    Deklarace statickcých proměnných.
+    ************************************************************************************************/
+
+    /**
+     * Pyramidy podle původních obrázků (aby se při opakovaném zvětšování stejného obrázku znovu nevytvářely).
+     */
+    private static final Map<BufferedImage, ImagePyramid> PYRAMIDS = new WeakHashMap<>();
+
+    /************************************************************************************************
+    Deklarace proměnných a konstant.
+    ************************************************************************************************/
+
+    /**
+     * Původní obrázek (slabá reference, aby pyramida v mapě pyramid nedržela svůj vlastní klíč).
+     */
+    private final WeakReference<BufferedImage> source;
+
+    /**
+     * Dosud vytvořené zmenšeniny (první má poloviční rozměry původního obrázku).
+     */
+    private final List<BufferedImage> levels = new ArrayList<>();
+
+    /************************************************************************************************
+    Deklarace konstruktorů a továrních metod.
+    ************************************************************************************************/
+
+    /**
+     * @param source původní obrázek
+     */
+    private ImagePyramid(BufferedImage source) {
+        this.source = new WeakReference<>(source);
+    }
+
+    /**
+     * Tovární metoda.
+     * @param source původní obrázek
+     * @return pyramida zmenšenin obrázku (pro stejný obrázek vždy stejná)
+     */
+    static ImagePyramid of(BufferedImage source){
+        synchronized(PYRAMIDS){
+            ImagePyramid pyramid = PYRAMIDS.get(source);
+            if(pyramid == null){
+                pyramid = new ImagePyramid(source);
+                PYRAMIDS.put(source, pyramid);
+            }
+            return pyramid;
+        }
+    }
+
+    /************************************************************************************************
+    Deklarace veřejných metod.
+    ************************************************************************************************/
+
+    /**
+     * Vrátí nejmenší úroveň pyramidy, která je alespoň tak velká jako požadované rozměry
+     * (pro zvětšení nad původní rozměry vrátí původní obrázek).
+     * Volající musí po dobu používání pyramidy držet původní obrázek.
+     * @param width šířka, ve které se bude obrázek vykreslovat
+     * @param height výška, ve které se bude obrázek vykreslovat
+     * @return úroveň pyramidy
+     */
+    synchronized BufferedImage getLevel(int width, int height){
+        width = Math.max(1, width);
+        height = Math.max(1, height);
+        BufferedImage level = source.get();
+        for(int i = 0; level.getWidth()/2 >= width && level.getHeight()/2 >= height; i++){
+            if(i == levels.size()){
+                levels.add(halve(level));
+            }
+            level = levels.get(i);
+        }
+        return level;
+    }
+
+    /************************************************************************************************
+    Deklarace soukromých metod.
+    ************************************************************************************************/
+
+    /**
+     * Zmenší obrázek na polovinu (bilineárně, takže každý bod je průměrem čtyř bodů předchozí úrovně).
+     * @param image obrázek
+     * @return obrázek s polovičními rozměry
+     */
+    private static BufferedImage halve(BufferedImage image){
+        int type = image.getTransparency() == Transparency.OPAQUE ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+        BufferedImage half = new BufferedImage(Math.max(1, image.getWidth()/2), Math.max(1, image.getHeight()/2), type);
+        Graphics2D g = half.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(image, 0, 0, half.getWidth(), half.getHeight(), null);
+        g.dispose();
+        return half;
+    }
+}
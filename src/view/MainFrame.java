@@ -14,13 +14,16 @@ import java.awt.FontFormatException;
 import java.awt.GradientPaint;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
 import java.awt.GraphicsEnvironment;
 import java.awt.Point;
 import java.awt.Toolkit;
+import java.awt.Transparency;
 import java.awt.event.ActionListener;
 import java.awt.event.ItemListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.logging.Level;
@@ -127,8 +130,6 @@ class MainFrame extends JFrame{
         
         setPopUpMenu();
         setToolTipTexts();
-        
-        creatFont();
     }
     
     /**
@@ -543,10 +544,12 @@ class MainFrame extends JFrame{
         }
     }
     
-    private void creatFont(){
+    /**
+     * Vytvoří a zaregistruje font Monotype Corsiva. (Volá se na pozadí během spouštění editoru.)
+     */
+    static void creatFont(){
         //Vytvoření fontu Monotype Corsiva
-        try {
-            InputStream myStream = getClass().getResourceAsStream("/Graphics/MTCORSVA.ttf");
+        try (InputStream myStream = MainFrame.class.getResourceAsStream("/Graphics/MTCORSVA.ttf")) {
             Font font = Font.createFont(Font.TRUETYPE_FONT, myStream);
             GraphicsEnvironment.getLocalGraphicsEnvironment().registerFont(font);
         } catch (FontFormatException | IOException ex) {
@@ -925,9 +928,24 @@ class MainFrame extends JFrame{
     
     /**
      * Třída představující panel s šedým gradientem.
+     * Gradient se vykreslí jen jednou (do obrázku široký jeden bod) a dál se jen kopíruje.
+     * Znovu se vykreslí až při změně výšky panelu, jeho barvy (vzhledu aplikace) nebo měřítka obrazovky.
      */
     private static class GradientPanel extends JPanel {
         
+        /**
+         * Vykreslený gradient (null, dokud se panel poprvé nevykreslí).
+         */
+        private BufferedImage gradient;
+        
+        /**
+         * Barvy, výška a svislé měřítko obrazovky, pro které byl gradient vykreslen.
+         */
+        private Color gradientTop;
+        private Color gradientBottom;
+        private int gradientHeight;
+        private double gradientScale;
+        
         public GradientPanel() {
             super();
         }
@@ -936,36 +954,75 @@ class MainFrame extends JFrame{
         public void paintComponent(Graphics g) {
             super.paintComponent(g);
             Graphics2D g2d = (Graphics2D) g;
-            Color color1 = getBackground();
-            Color color2 = Color.WHITE;
+            Color color1 = getTopColor();
+            Color color2 = getBottomColor();
             int w = getWidth();
             int h = getHeight();
-            GradientPaint gp = new GradientPaint(0, 0, color1, 0, h, color2);
-            g2d.setPaint(gp);
-            g2d.fillRect(0, 0, w, h);
+            double scale = Math.abs(g2d.getTransform().getScaleY());
+            if(gradient == null || h != gradientHeight || scale != gradientScale || !color1.equals(gradientTop) || !color2.equals(gradientBottom)){
+                gradient = createGradient(g2d.getDeviceConfiguration(), color1, color2, h, scale);
+                gradientTop = color1;
+                gradientBottom = color2;
+                gradientHeight = h;
+                gradientScale = scale;
+            }
+            g2d.drawImage(gradient, 0, 0, w, h, null);
+        }
+        
+        /**
+         * @return barva gradientu nahoře
+         */
+        protected Color getTopColor(){
+            return getBackground();
+        }
+        
+        /**
+         * @return barva gradientu dole
+         */
+        protected Color getBottomColor(){
+            return Color.WHITE;
+        }
+        
+        /**
+         * Vykreslí svislý gradient do obrázku širokého jeden bod.
+         * @param configuration konfigurace obrazovky
+         * @param color1 barva nahoře
+         * @param color2 barva dole
+         * @param h výška gradientu
+         * @param scale svislé měřítko obrazovky
+         * @return obrázek gradientu
+         */
+        private static BufferedImage createGradient(GraphicsConfiguration configuration, Color color1, Color color2, int h, double scale){
+            int height = Math.max(1, (int) Math.ceil(h*scale));
+            boolean opaque = color1.getAlpha() == 255 && color2.getAlpha() == 255;
+            BufferedImage image = configuration != null
+                    ? configuration.createCompatibleImage(1, height, opaque ? Transparency.OPAQUE : Transparency.TRANSLUCENT)
+                    : new BufferedImage(1, height, opaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g2d = image.createGraphics();
+            g2d.setPaint(new GradientPaint(0, 0, color1, 0, height, color2));
+            g2d.fillRect(0, 0, 1, height);
+            g2d.dispose();
+            return image;
         }
     }
     
     /**
      * Třída představující panel s šedým gradientem.
      */
-    private static class GradientPanel2 extends JPanel {
+    private static class GradientPanel2 extends GradientPanel {
         
         public GradientPanel2() {
             super();
         }
         
         @Override
-        public void paintComponent(Graphics g) {
-            super.paintComponent(g);
-            Graphics2D g2d = (Graphics2D) g;
-            Color color1 = getBackground();
-            Color color2 = color1.darker();//new Color(190, 191, 194);
-            int w = getWidth();
-            int h = getHeight();
-            GradientPaint gp = new GradientPaint(0, 0, color2, 0, h, color1);
-            g2d.setPaint(gp);
-            g2d.fillRect(0, 0, w, h);
+        protected Color getTopColor(){
+            return getBackground().darker();//new Color(190, 191, 194);
+        }
+        
+        @Override
+        protected Color getBottomColor(){
+            return getBackground();
         }
     }
     
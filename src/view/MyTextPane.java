@@ -27,6 +27,7 @@ import javax.swing.text.StyleConstants;
 import javax.swing.text.StyledDocument;
 import model.MyDocument;
 import view.EditorViewes.IconMyView;
+import view.EditorViewes.ImageBoundsIndex;
 
 /**
  * Třída představuje editovací okno.
@@ -123,6 +124,23 @@ public class MyTextPane extends JTextPane{
         lastCaretPosition = getDocument().getLength();
     }
     
+    /**
+     * Vykreslí editor a přitom aktualizuje index hranic obrázků 
+     * (obrázky, které se ve vykreslované oblasti už nevykreslily, se z něj odeberou).
+     * @param g grafika
+     */
+    @Override
+    protected void paintComponent(Graphics g) {
+        ImageBoundsIndex index = ImageBoundsIndex.getImageBoundsIndex();
+        Rectangle clip = g.getClipBounds();
+        index.beginPaint(clip != null ? clip : new Rectangle(0, 0, getWidth(), getHeight()));
+        try{
+            super.paintComponent(g);
+        }finally{
+            index.endPaint();
+        }
+    }
+    
     /**
      * Vloží daný obrázek do dokumentu na pozici kurzoru.
      * @param g obrázek
@@ -366,21 +384,26 @@ public class MyTextPane extends JTextPane{
             IconMyView.clearAllSelection();
 
             Element element  = getStyledDocument().getCharacterElement(p0);
-            AttributeSet attrs = element.getAttributes();
-            if(StyleConstants.getIcon(attrs)!=null){
-                modelToView(p0);
-                IconMyView.getCurrentImageView().setSelected(true);
-            }
+            selectImageView(element);
             for(int i=element.getEndOffset(); i < p1; i+=element.getEndOffset()-element.getStartOffset()){
                 element = getStyledDocument().getCharacterElement(i);
-                attrs = element.getAttributes();
-                if(StyleConstants.getIcon(attrs)!=null){
-                    modelToView(i);
-                    IconMyView.getCurrentImageView().setSelected(true);
-                }
+                selectImageView(element);
             }
             repaint();
         }
+
+        /**
+         * Pokud je element obrázkem, tak podbarví jeho view.
+         * @param element element dokumentu
+         */
+        private void selectImageView(Element element){
+            if(StyleConstants.getIcon(element.getAttributes())!=null){
+                IconMyView view = IconMyView.getView(element);
+                if(view!=null){
+                    view.setSelected(true);
+                }
+            }
+        }
     }
     
     /**
@@ -15,11 +15,7 @@ import java.awt.event.ItemListener;
 import java.awt.event.KeyListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.WindowAdapter;
-import java.awt.image.BufferedImage;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 import javax.swing.Action;
-import javax.swing.ImageIcon;
 import javax.swing.JDialog;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
@@ -28,17 +24,12 @@ import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
 import javax.swing.WindowConstants;
 import javax.swing.event.CaretListener;
-import javax.swing.text.AttributeSet;
 import javax.swing.text.BadLocationException;
-import javax.swing.text.Element;
-import javax.swing.text.MutableAttributeSet;
-import javax.swing.text.SimpleAttributeSet;
-import javax.swing.text.StyleConstants;
-import javax.swing.text.StyledDocument;
 import javax.swing.text.ViewFactory;
 import model.FunctionSetup;
 import model.MyDocument;
 import view.EditorViewes.IconMyView;
+import view.EditorViewes.ImageBoundsIndex;
 import view.EditorViewes.PageableViewFactory;
 
 /**
@@ -55,6 +46,11 @@ public class MyView
      */
     private static MyView view;
     
+    /**
+     * Titulek hlavního okna.
+     */
+    private static final String TITLE = "Typoň";
+    
     /**
      * Povolené koncovky vkládaných obrázků.
      */
@@ -74,11 +70,6 @@ public class MyView
            Cursor.SW_RESIZE_CURSOR, Cursor.SE_RESIZE_CURSOR
            };
     
-    /**
-     * Globální logger chyb
-     */
-    private final static Logger LOGGER = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
-    
     /************************************************************************************************
     Deklarace proměnných a konstant.
     ************************************************************************************************/
@@ -160,6 +151,14 @@ public class MyView
         return mainFrame.getPopupMenu();
     }
     
+    /**
+     * Zaregistruje fonty, které nejsou v systému nainstalované (Monotype Corsiva).
+     * Lze volat z libovolného vlákna, ale musí se dokončit dřív, než se v dokumentu použijí.
+     */
+    public static void registerFonts(){
+        MainFrame.creatFont();
+    }
+    
     /**
      * Zviditelní GUI
      * @param visible pokud je true, tak je GUI zobrazeno a naopak
@@ -542,27 +541,15 @@ public class MyView
     }
     
     /**
-     * Získání informací z původního obrázku, vymaže ho a nahradí větším.
+     * Změní rozměry obrázku v dokumentu (obrázek samotný zůstává původní).
      * @param pressedView view obrázku
      * @param w nová šířka
      * @param h nová výška
      */
     public void changeSizeOfPicture(IconMyView pressedView,int w,int h){
         MyDocument doc = (MyDocument)editor.getDocument();
-        BufferedImage original = pressedView.getOriginal();
-        int p = pressedView.viewToModel();
-        pressedView.setSize(w, h, false);
-        try {
-            AttributeSet attr = doc.getParagraphElement(p).getAttributes();
-            doc.remove(p, 1);
-            doc.insertPicture(new ImageIcon(pressedView.getImage()), p);
-            MutableAttributeSet at = new SimpleAttributeSet();
-            StyleConstants.setAlignment(at, StyleConstants.getAlignment(attr));
-            doc.setParagraphAttributes(p, 1, attr, false);
-        } catch (BadLocationException ex) {
-            LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
-        }
-        setNewPicture(p, original);
+        doc.resizePicture(pressedView.viewToModel(), w, h);
+        setPictureFocus(pressedView);
     }
 
     /**
@@ -598,23 +585,14 @@ public class MyView
     }
     
     /**
-     * Zjistí, zda je na dané pozici přímo obrázek (bez rámu) a případně ho rovnou vrátí. 
+     * Zjistí, zda je na dané pozici obrázek (i s rámečkem pro uchopení) a případně ho rovnou vrátí. 
+     * Obrázek se hledá v indexu hranic vykreslených obrázků, takže se nepracuje s modelem dokumentu.
      * @param mouseLocation pozice v reálných souřadnicíh
      * @return null pokud se nejedná o obrázek
      */
     public IconMyView getImageOnPosition(Point mouseLocation){
        if(mouseLocation!=null){    
-           int pos = editor.viewToModel(mouseLocation);
-           if (isImage(pos)){
-               try {
-                   Rectangle rect = editor.modelToView(pos);
-                   if(rect.contains(mouseLocation)){
-                       return IconMyView.getCurrentImageView();
-                   }
-               } catch (BadLocationException ex) {
-                   LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
-               }
-           }
+           return ImageBoundsIndex.getImageBoundsIndex().getImageAt(mouseLocation);
        }
        return null;
     }
@@ -716,6 +694,18 @@ public class MyView
         }
     }
     
+    /**
+     * Zobrazí v titulku hlavního okna stav právě probíhající činnosti na pozadí.
+     * @param status popis stavu (null pro žádný stav)
+     */
+    public void setStatus(String status){
+        if(status == null){
+            mainFrame.setTitle(TITLE);
+        }else{
+            mainFrame.setTitle(TITLE+" – "+status);
+        }
+    }
+    
     /************************************************************************************************
     Deklarace soukromých metod.
     ************************************************************************************************/
@@ -742,45 +732,5 @@ public class MyView
         UIManager.put("FileChooser.refreshActionLabelText", "Obnovit");
         UIManager.put("FileChooser.newFolderActionLabelText", "Vytvořit novou složku");
     }
-
-    /**
-     * Zjistí zda je na dané pozici obrázek i s rámem. 
-     * @param pos pozice v dokumentu
-     * @return true, pokud se jedná o obrázek
-     */
-    private boolean isImage(int pos){
-       if (pos >= 0) {
-           StyledDocument doc = editor.getStyledDocument();
-           Element element = doc.getCharacterElement(pos);
-           AttributeSet style = element.getAttributes();
-           return style != null && StyleConstants.getIcon(style) != null;
-       }
-       return false;
-    }
-
-    /**
-     * Vrátí view obrázku na dané pozici v dokumentu.
-     * @param pos pozice obrázku v dokumentu
-     * @return view obrázku
-     */
-    private IconMyView getImageViewOnPosition(int pos) throws BadLocationException{
-        editor.modelToView(pos).getLocation();
-        return IconMyView.getCurrentImageView();
-    }
-
-    /**
-     * Vložení obrázku s jinými rozměry do editoru.
-     * @param pos pozice obrázku
-     * @param original původní obrázek
-     */
-    private void setNewPicture(int pos, BufferedImage original){
-        try {
-            IconMyView newView = getImageViewOnPosition(pos);
-            newView.setOriginal(original);
-            setPictureFocus(newView);
-        } catch (BadLocationException ex) {
-            LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
-        }
-    }
 }
 
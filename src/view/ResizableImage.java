@@ -11,19 +11,15 @@ import java.awt.Color;
 import java.awt.Component;
 import java.awt.Composite;
 import java.awt.Cursor;
-import java.awt.GradientPaint;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Insets;
-import java.awt.Paint;
-import java.awt.RadialGradientPaint;
 import java.awt.Rectangle;
-import java.awt.RenderingHints;
-import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
 import javax.swing.JComponent;
 import javax.swing.SwingConstants;
 import javax.swing.border.Border;
+import view.EditorViewes.ResizeHandleSprites;
 
 
 public class ResizableImage extends JComponent {
@@ -32,9 +28,14 @@ public class ResizableImage extends JComponent {
     ************************************************************************************************/
     
     /**
-     * Vykreslovaný obrázek.
+     * Vykreslovaný obrázek (pyramida ho drží jen slabou referencí, takže ho po dobu zobrazení náhledu drží náhled).
      */
-    private final BufferedImage image;
+    private final BufferedImage buffered;
+    
+    /**
+     * Pyramida zmenšenin vykreslovaného obrázku.
+     */
+    private final ImagePyramid pyramid;
     
     /**
      * Šířka jednoho uchopovacího čtverečku na zvetšovacím okraji obrázku. 
@@ -52,7 +53,8 @@ public class ResizableImage extends JComponent {
      * @param cursor kurzor, který se má po dobu zobrazení náhledu zobrazovat
      */
     ResizableImage(BufferedImage buffered, Rectangle bounds, int cursor) {
-        this.image = buffered;
+        this.buffered = buffered;
+        this.pyramid = ImagePyramid.of(buffered);
         setBounds(bounds);
         setBorder(new ResizableBorder(BORDER_WIDTH));
         setCursor(Cursor.getPredefinedCursor(cursor));
@@ -70,7 +72,10 @@ public class ResizableImage extends JComponent {
         float opacity = 0.5f;
         ((Graphics2D)g).setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, opacity));
         
-        g.drawImage(image, BORDER_WIDTH/2, BORDER_WIDTH/2, getWidth()-BORDER_WIDTH, getHeight()-BORDER_WIDTH, null);
+        //vykresluje se z nejbližší větší zmenšeniny, takže cena vykreslení nezávisí na rozlišení obrázku
+        int width = getWidth()-BORDER_WIDTH;
+        int height = getHeight()-BORDER_WIDTH;
+        g.drawImage(pyramid.getLevel(width, height), BORDER_WIDTH/2, BORDER_WIDTH/2, width, height, null);
         ((Graphics2D)g).setComposite(oldComposite);
         
         super.paint(g);
@@ -120,54 +125,10 @@ public class ResizableImage extends JComponent {
             g.setColor(Color.black);
             g.drawRect(x + dist / 2, y + dist / 2, w - dist, h - dist);
 
-            Graphics2D g2 = (Graphics2D) g;
-            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-
-            // Retains the previous state
-            Paint oldPaint = g2.getPaint();
-            
-            //Vykreslit čtverečky pro uchopení.
+            //Vykreslit čtverečky pro uchopení (předem vykreslené).
             for (int i = 0; i < locations.length; i++) {
-                Rectangle rect = getRectangle(x, y, w, h, locations[i]);
-            
-                // Fills the circle with solid blue color
-                //g2.setColor(new Color(0x0153CC));
-                g2.setColor(new Color(255,200,0));
-                g2.fillOval(rect.x, rect.y, rect.width - 1, rect.height - 1);
-
-                // Adds shadows at the top
-                Paint p;
-                p = new GradientPaint(rect.x, rect.y, new Color(0.0f, 0.0f, 0.0f, 0.4f), rect.x, rect.y+rect.height, new Color(0.0f, 0.0f, 0.0f, 0.0f));
-                g2.setPaint(p);
-                g2.fillOval(rect.x, rect.y, rect.width - 1, rect.height - 1);
-
-                // Adds highlights at the bottom 
-                p = new GradientPaint(rect.x, rect.y, new Color(1.0f, 1.0f, 1.0f, 0.0f), rect.x, rect.y+rect.height, new Color(1.0f, 1.0f, 1.0f, 0.4f));
-                g2.setPaint(p);
-                g2.fillOval(rect.x, rect.y, rect.width - 1, rect.height - 1);
-
-                // Creates dark edges for 3D effect
-                p = new RadialGradientPaint(new Point2D.Double(rect.x+rect.width / 2.0, rect.y+rect.height / 2.0), 
-                        rect.width / 2.0f,
-                        new float[] { 0.0f, 1.0f },
-                        new Color[] { new Color(255, 128, 0, 127), new Color(0.0f, 0.0f, 0.0f, 0.8f) });
-                g2.setPaint(p);
-                g2.fillOval(rect.x, rect.y, rect.width - 1, rect.height - 1);
-
-                // Adds oval specular highlight at the top left
-                p = new RadialGradientPaint(new Point2D.Double(rect.x+rect.width / 2.0,
-                        rect.y+rect.height / 2.0), rect.width / 1.4f,
-                        new Point2D.Double(rect.x+45.0, rect.y+25.0),
-                        new float[] { 0.0f, 0.5f },
-                        new Color[] { new Color(1.0f, 1.0f, 1.0f, 0.4f),
-                            new Color(1.0f, 1.0f, 1.0f, 0.0f) },
-                        RadialGradientPaint.CycleMethod.NO_CYCLE);
-                g2.setPaint(p);
-                g2.fillOval(rect.x, rect.y, rect.width - 1, rect.height - 1);
+                ResizeHandleSprites.paintHandle((Graphics2D) g, getRectangle(x, y, w, h, locations[i]));
             }
-            
-            // Restores the previous state
-            g2.setPaint(oldPaint);
         }
 
         /**
@@ -0,0 +1,188 @@
+//==============================================================================
+// Copyright Jan Brzobohatý 2015.
+// Distributed under the MIT License.
+// (See accompanying file LICENSE or copy at http://opensource.org/licenses/MIT)
+//==============================================================================
+
+package model;
+
+import java.awt.Font;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.MutableAttributeSet;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.StyleContext;
+
+/**
+ * Mikrobenchmark metody {@link MyDocument#getFont(javax.swing.text.AttributeSet)}.
+ * Porovná vytváření fontů s vyrovnávací pamětí (MyDocument.getFont) s původním vytvářením fontu
+ * při každém volání (kopie atributů, přepočet velikosti a dotaz do StyleContext).
+ * Spouští se jako samostatná aplikace (bez parametrů, případně s počtem úseků textu jako prvním parametrem).
+ * Vypisuje medián doby jednoho volání a průměrnou alokovanou paměť na jedno volání (pokud ji JVM umí změřit).
+ * @author Jan Brzobohatý
+ */
+public class MyDocumentFontBenchmark {
+    /************************************************************************************************
+    Deklarace proměnných a konstant.
+    ************************************************************************************************/
+
+    /**
+     * Velikosti písma, které se v dokumentu střídají.
+     */
+    private static final int[] FONT_SIZES = {8, 10, 12, 14, 16, 20, 24};
+
+    /**
+     * Počet průchodů všemi úseky textu při zahřátí a v jednom měření.
+     */
+    private static final int WARMUP_PASSES = 20;
+    private static final int MEASURED_PASSES = 100;
+
+    /**
+     * Počet měření (výsledkem je medián).
+     */
+    private static final int ROUNDS = 5;
+
+    /**
+     * Součet velikostí vrácených fontů (aby JIT volání neodstranil jako zbytečná).
+     */
+    private static long sink;
+
+    /************************************************************************************************
+    Deklarace veřejných metod.
+    ************************************************************************************************/
+
+    /**
+     * @param args počet úseků textu v dokumentu (nepovinný, výchozí 20000)
+     * @throws BadLocationException Pokud se dokument nepodařilo vytvořit.
+     */
+    public static void main(String[] args) throws BadLocationException {
+        int runCount = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        final MyDocument document = createDocument(runCount);
+        List<AttributeSet> runs = getRuns(document);
+        final StyleContext styles = new StyleContext();
+
+        System.out.printf("Java %s, úseků textu: %d, volání v jednom měření: %d%n",
+                System.getProperty("java.version"), runs.size(), (long) runs.size()*MEASURED_PASSES);
+        measure("bez vyrovnávací paměti", runs, new FontSource() {
+            @Override
+            public Font getFont(AttributeSet attr) {
+                MutableAttributeSet attrs = new SimpleAttributeSet(attr);
+                StyleConstants.setFontSize(attrs, (StyleConstants.getFontSize(attr)*100/70));
+                return styles.getFont(attrs);
+            }
+        });
+        measure("MyDocument.getFont", runs, new FontSource() {
+            @Override
+            public Font getFont(AttributeSet attr) {
+                return document.getFont(attr);
+            }
+        });
+        System.out.println("(kontrolní součet "+sink%10+")");
+    }
+
+    /************************************************************************************************
+    Deklarace soukromých metod.
+    ************************************************************************************************/
+
+    /**
+     * Vytvoří dokument se střídajícími se velikostmi a tučností písma (deset slov na odstavec).
+     * @param runCount počet úseků textu
+     * @return dokument
+     * @throws BadLocationException Pokud se do dokumentu nepodařilo vložit text.
+     */
+    private static MyDocument createDocument(int runCount) throws BadLocationException{
+        MyDocument document = new MyDocument();
+        for(int i = 0; i < runCount; i++){
+            MutableAttributeSet attrs = new SimpleAttributeSet();
+            StyleConstants.setFontFamily(attrs, Model.FONT_FAMILY);
+            StyleConstants.setFontSize(attrs, FONT_SIZES[i%FONT_SIZES.length]);
+            StyleConstants.setBold(attrs, i%2 == 0);
+            document.insertString(document.getLength(), "slovo"+i+(i%10 == 9 ? "\n" : " "), attrs);
+        }
+        return document;
+    }
+
+    /**
+     * @param document dokument
+     * @return atributy všech úseků textu v dokumentu
+     */
+    private static List<AttributeSet> getRuns(MyDocument document){
+        List<AttributeSet> runs = new ArrayList<>();
+        Element root = document.getDefaultRootElement();
+        for(int i = 0; i < root.getElementCount(); i++){
+            Element paragraph = root.getElement(i);
+            for(int j = 0; j < paragraph.getElementCount(); j++){
+                runs.add(paragraph.getElement(j).getAttributes());
+            }
+        }
+        return runs;
+    }
+
+    /**
+     * Změří a vypíše dobu jednoho volání a alokovanou paměť na jedno volání.
+     * @param name název měřené varianty
+     * @param runs atributy úseků textu
+     * @param source měřená varianta vytváření fontu
+     */
+    private static void measure(String name, List<AttributeSet> runs, FontSource source){
+        for(int pass = 0; pass < WARMUP_PASSES; pass++){
+            callAll(runs, source);
+        }
+        long calls = (long) runs.size()*MEASURED_PASSES;
+        double[] nanosPerCall = new double[ROUNDS];
+        long allocated = 0;
+        for(int round = 0; round < ROUNDS; round++){
+            long bytesBefore = getAllocatedBytes();
+            long start = System.nanoTime();
+            for(int pass = 0; pass < MEASURED_PASSES; pass++){
+                callAll(runs, source);
+            }
+            nanosPerCall[round] = (System.nanoTime()-start)/(double) calls;
+            allocated += getAllocatedBytes()-bytesBefore;
+        }
+        Arrays.sort(nanosPerCall);
+        String allocation = getAllocatedBytes() < 0 ? "neměřeno" : String.format("%.1f B/volání", allocated/(double) (calls*ROUNDS));
+        System.out.printf("%-24s %7.1f ns/volání (min %.1f, max %.1f), %s%n",
+                name, nanosPerCall[ROUNDS/2], nanosPerCall[0], nanosPerCall[ROUNDS-1], allocation);
+    }
+
+    /**
+     * Zavolá vytváření fontu pro všechny úseky textu.
+     * @param runs atributy úseků textu
+     * @param source měřená varianta vytváření fontu
+     */
+    private static void callAll(List<AttributeSet> runs, FontSource source){
+        for(AttributeSet attr : runs){
+            sink += source.getFont(attr).getSize();
+        }
+    }
+
+    /**
+     * @return paměť alokovaná tímto vláknem (v bytech), -1 pokud ji JVM neumí změřit
+     */
+    private static long getAllocatedBytes(){
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if(threads instanceof com.sun.management.ThreadMXBean){
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /************************************************************************************************
+    Deklarace soukromých tříd.
+    ************************************************************************************************/
+
+    /**
+     * Měřená varianta vytváření fontu.
+     */
+    private interface FontSource {
+        Font getFont(AttributeSet attr);
+    }
+}